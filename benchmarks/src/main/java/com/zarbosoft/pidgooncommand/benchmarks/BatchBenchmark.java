@@ -0,0 +1,54 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.ParseResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing a batch of command lines with one shared parser as the number of threads grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+	private static final int BATCH = 1000;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	private CommandParser<Shapes.CommandLine> parser;
+	private List<String[]> batch;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Shapes.CommandLine.class);
+		batch = new ArrayList<>();
+		for (int i = 0; i < BATCH; ++i) {
+			final String[] args = Shapes.COMMAND_LINE_ARGS.clone();
+			args[0] = Integer.toString(i);
+			batch.add(args);
+		}
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<ParseResult<Shapes.CommandLine>> parseAll() {
+		return parser.parseAll(batch.stream(), pool);
+	}
+}
@@ -0,0 +1,69 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.ParserCache;
+import org.openjdk.jmh.annotations.*;
+import org.reflections.Reflections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads parsing with parsers from the shared cache versus each call compiling its own parser.  {@code lookup}
+ * and {@code lookupScanned} are the cost of a cache hit alone for a parser using the subclass index and for one
+ * compiled with a Reflections instance.  {@code evicting} fetches parsers for more root classes than a small cache
+ * holds so most lookups compile.  Run with {@code -t} to change the thread count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class CacheBenchmark {
+	private static final Class<?>[] ROOTS = new Class<?>[] {
+			Shapes.CommandLine.class, Shapes.MapHolder.class, Shapes.IncludeHolder.class
+	};
+
+	private Reflections reflections;
+	private ParserCache cache;
+	private ParserCache small;
+
+	@Setup
+	public void setup() {
+		reflections = new Reflections("com.zarbosoft.pidgooncommand.benchmarks");
+		cache = new ParserCache(16);
+		small = new ParserCache(1);
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = 0;
+	}
+
+	@Benchmark
+	public Shapes.CommandLine cached() {
+		return cache.get(Shapes.CommandLine.class).parse(Shapes.COMMAND_LINE_ARGS);
+	}
+
+	@Benchmark
+	public Shapes.CommandLine uncached() {
+		return Command.compile(Shapes.CommandLine.class).parse(Shapes.COMMAND_LINE_ARGS);
+	}
+
+	@Benchmark
+	public Object lookup() {
+		return cache.get(Shapes.CommandLine.class);
+	}
+
+	@Benchmark
+	public Object lookupScanned() {
+		return cache.get(reflections, Shapes.CommandLine.class);
+	}
+
+	@Benchmark
+	public Object evicting(final Cursor cursor) {
+		cursor.next = (cursor.next + 1) % ROOTS.length;
+		return small.get(reflections, ROOTS[cursor.next]);
+	}
+}
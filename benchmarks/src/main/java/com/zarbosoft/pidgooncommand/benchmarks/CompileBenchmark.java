@@ -0,0 +1,38 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import org.openjdk.jmh.annotations.*;
+import org.reflections.Reflections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold parsing (grammar rebuilt per call) versus parsing with a parser compiled once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+	private Reflections reflections;
+	private CommandParser<Shapes.CommandLine> parser;
+
+	@Setup
+	public void setup() {
+		reflections = new Reflections("com.zarbosoft.pidgooncommand.benchmarks");
+		parser = Command.compile(reflections, Shapes.CommandLine.class);
+	}
+
+	@Benchmark
+	public Shapes.CommandLine cold() {
+		return Command.compile(reflections, Shapes.CommandLine.class).parse(Shapes.COMMAND_LINE_ARGS);
+	}
+
+	@Benchmark
+	public Shapes.CommandLine compiled() {
+		return parser.parse(Shapes.COMMAND_LINE_ARGS);
+	}
+}
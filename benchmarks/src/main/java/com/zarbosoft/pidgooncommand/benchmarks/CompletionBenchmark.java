@@ -0,0 +1,36 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completing the next argument after a prefix that sets half of a command's keywords.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompletionBenchmark {
+	@Param({"10", "100", "1000"})
+	public int flags;
+
+	private CommandParser<?> parser;
+	private String[] prefix;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Synthetic.keywords(flags));
+		prefix = Synthetic.keywordArgs(flags, 2);
+	}
+
+	@Benchmark
+	public List<String> complete() {
+		return parser.complete(prefix);
+	}
+}
@@ -0,0 +1,49 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.CommandStream;
+import com.zarbosoft.pidgooncommand.ParseResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of failed parses reported as exceptions versus as values, and of a successful grammar parse, which formats
+ * no positions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ErrorBenchmark {
+	private CommandParser<Shapes.CommandLine> parser;
+	private String[] invalid;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Shapes.CommandLine.class);
+		invalid = Shapes.COMMAND_LINE_ARGS.clone();
+		invalid[invalid.length - 2] = "xq";
+	}
+
+	@Benchmark
+	public ParseResult<Shapes.CommandLine> invalidTryParse() {
+		return parser.tryParse(invalid);
+	}
+
+	@Benchmark
+	public ParseResult<Shapes.CommandLine> invalidParseOrError() {
+		return parser.parseOrError(invalid);
+	}
+
+	@Benchmark
+	public Shapes.CommandLine validGrammar() {
+		final CommandStream<Shapes.CommandLine> stream = parser.stream();
+		for (final String arg : Shapes.COMMAND_LINE_ARGS)
+			stream.push(arg);
+		return stream.finish();
+	}
+}
@@ -0,0 +1,57 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.SubclassIndex;
+import org.openjdk.jmh.annotations.*;
+import org.reflections.Reflections;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking a command class and building its grammar, as the nesting depth and the number of arguments per level
+ * grow.  Subclasses come from a preloaded index so scanning isn't measured.
+ * <p>
+ * Rules for classes are only built when a parse first reaches them, so {@link #compile()} also streams one argument
+ * vector through the grammar for each subcommand to build every rule, which includes the time to parse them.
+ * {@link #setupOnly()} measures compiling alone, which builds only the root of the grammar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GrammarBenchmark {
+	@Param({"1", "4", "16"})
+	public int depth;
+
+	@Param({"1", "8", "32"})
+	public int width;
+
+	private Class<?> klass;
+	private Reflections reflections;
+	private List<String[]> everySubcommand;
+
+	@Setup
+	public void setup() {
+		klass = Synthetic.nested(depth, width);
+		reflections = SubclassIndex.load(klass.getClassLoader());
+		everySubcommand = Synthetic.nestedEverySubcommand(depth, width);
+	}
+
+	@Benchmark
+	public CommandParser<?> compile() {
+		final CommandParser<?> parser = Command.compile(reflections, klass);
+		for (final String[] args : everySubcommand)
+			parser.stream().push(Arrays.asList(args).iterator()).finish();
+		return parser;
+	}
+
+	@Benchmark
+	public CommandParser<?> setupOnly() {
+		return Command.compile(reflections, klass);
+	}
+}
@@ -0,0 +1,53 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.SubclassIndex;
+import org.openjdk.jmh.annotations.*;
+import org.reflections.Reflections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Help rendering, either from scratch as {@link Command#showHelp(Reflections, Class, String)} does or from the help
+ * already formatted by a compiled parser.  Output goes to a StringBuilder rather than a stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HelpBenchmark {
+	@Param({"1", "4", "16"})
+	public int depth;
+
+	@Param({"1", "8", "32"})
+	public int width;
+
+	private Class<?> klass;
+	private Reflections reflections;
+	private CommandParser<?> parser;
+
+	@Setup
+	public void setup() {
+		klass = Synthetic.nested(depth, width);
+		reflections = SubclassIndex.load(klass.getClassLoader());
+		parser = Command.compile(reflections, klass);
+		parser.help();
+	}
+
+	@Benchmark
+	public StringBuilder cold() {
+		final StringBuilder out = new StringBuilder();
+		Command.compile(reflections, klass).help().render(out, "usage: ");
+		return out;
+	}
+
+	@Benchmark
+	public StringBuilder cached() {
+		final StringBuilder out = new StringBuilder();
+		parser.help().render(out, "usage: ");
+		return out;
+	}
+}
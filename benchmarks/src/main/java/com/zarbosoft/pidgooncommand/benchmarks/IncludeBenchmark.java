@@ -0,0 +1,44 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.CommandStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing many list values interleaved with other keywords, with the single pass parser and with the grammar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IncludeBenchmark {
+	@Param({"100", "10000"})
+	public int paths;
+
+	private CommandParser<Shapes.IncludeHolder> parser;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Shapes.IncludeHolder.class);
+		args = Shapes.includeArgs(paths);
+	}
+
+	@Benchmark
+	public Shapes.IncludeHolder parse() {
+		return parser.parse(args);
+	}
+
+	@Benchmark
+	public Shapes.IncludeHolder grammar() {
+		final CommandStream<Shapes.IncludeHolder> stream = parser.stream();
+		for (final String arg : args)
+			stream.push(arg);
+		return stream.finish();
+	}
+}
@@ -0,0 +1,47 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.CommandStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse time as the number of keywords in a command grows.  Every tenth keyword is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeywordDispatchBenchmark {
+	@Param({"10", "100", "1000"})
+	public int flags;
+
+	private CommandParser<?> parser;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Synthetic.keywords(flags));
+		args = Synthetic.keywordArgs(flags, 10);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return parser.parse(args);
+	}
+
+	/**
+	 * The same parse through the pidgoon grammar, bypassing the single pass parser.
+	 */
+	@Benchmark
+	public Object grammar() {
+		final CommandStream<?> stream = parser.stream();
+		for (final String arg : args)
+			stream.push(arg);
+		return stream.finish();
+	}
+}
@@ -0,0 +1,48 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Setting every keyword of a large command and reading only one of them, parsed eagerly and lazily.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LazyBenchmark {
+	@Param({"100", "1000"})
+	public int flags;
+
+	private CommandParser<?> parser;
+	private Class<?> view;
+	private Method flag0;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		final Class<?> klass = Synthetic.keywords(flags);
+		parser = Command.compile(klass);
+		view = uncheck(() -> klass.getClassLoader().loadClass(klass.getName() + "$View"));
+		flag0 = uncheck(() -> view.getMethod("flag0"));
+		args = Synthetic.keywordArgs(flags, 1);
+	}
+
+	@Benchmark
+	public Object eager() {
+		return parser.parse(args);
+	}
+
+	@Benchmark
+	public int lazy() {
+		return uncheck(() -> (int) flag0.invoke(parser.parseLazy(args, view)));
+	}
+}
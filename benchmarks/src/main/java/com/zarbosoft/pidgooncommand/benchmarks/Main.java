@@ -0,0 +1,21 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Runs the benchmarks with the GC profiler always attached so allocation rates are reported next to times.  Takes
+ * the usual JMH arguments, for example {@code java -jar target/benchmarks.jar ParseBenchmark -p depth=4}.
+ */
+public class Main {
+	public static void main(final String[] args) {
+		uncheck(() -> new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run());
+	}
+}
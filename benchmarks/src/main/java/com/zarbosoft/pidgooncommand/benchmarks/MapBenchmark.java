@@ -0,0 +1,44 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.CommandStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a large map of integer values, with the single pass parser and with the grammar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapBenchmark {
+	@Param({"100", "10000"})
+	public int entries;
+
+	private CommandParser<Shapes.MapHolder> parser;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Shapes.MapHolder.class);
+		args = Shapes.mapArgs(entries);
+	}
+
+	@Benchmark
+	public Shapes.MapHolder parse() {
+		return parser.parse(args);
+	}
+
+	@Benchmark
+	public Shapes.MapHolder grammar() {
+		final CommandStream<Shapes.MapHolder> stream = parser.stream();
+		for (final String arg : args)
+			stream.push(arg);
+		return stream.finish();
+	}
+}
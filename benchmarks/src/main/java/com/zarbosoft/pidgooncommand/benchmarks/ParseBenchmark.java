@@ -0,0 +1,40 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing with a compiled parser as the nesting depth and the number of arguments per level grow.  Each level
+ * contributes an abstract subcommand, width positional arguments, width keywords, width list values and width
+ * map entries, so the argument count is roughly depth * width * 8.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+	@Param({"1", "4", "16"})
+	public int depth;
+
+	@Param({"1", "8", "32"})
+	public int width;
+
+	private CommandParser<?> parser;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Synthetic.nested(depth, width));
+		args = Synthetic.nestedArgs(depth, width);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return parser.parse(args);
+	}
+}
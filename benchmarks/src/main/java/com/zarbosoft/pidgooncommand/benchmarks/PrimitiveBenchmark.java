@@ -0,0 +1,82 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.interface1.Configuration;
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.IntList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing primitive int and double fields.  Run with {@code -prof gc} to see allocation per parse; numbers
+ * shouldn't add any beyond their argument events.  The repeated benchmarks are measured per value, where only the
+ * amortized growth of the list or array should remain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrimitiveBenchmark {
+	@Configuration
+	public static class Primitives {
+		@Configuration(name = "-a", optional = true)
+		public int a;
+		@Configuration(name = "-b", optional = true)
+		public int b;
+		@Configuration(name = "-c", optional = true)
+		public double c;
+		@Configuration(name = "-d", optional = true)
+		public double d;
+	}
+
+	@Configuration
+	public static class Repeated {
+		@Configuration(name = "-l", optional = true)
+		public IntList list;
+		@Configuration(name = "-r", optional = true)
+		public int[] array;
+	}
+
+	private static final String[] ARGS = new String[] {"-a", "1000000", "-b", "-42", "-c", "3.25", "-d", "1e-3"};
+	private static final int REPEATS = 1000;
+	private static final String[] LIST_ARGS = repeated("-l");
+	private static final String[] ARRAY_ARGS = repeated("-r");
+
+	private static String[] repeated(final String name) {
+		final String[] out = new String[REPEATS * 2];
+		for (int i = 0; i < REPEATS; ++i) {
+			out[i * 2] = name;
+			out[i * 2 + 1] = Integer.toString(i * 7 - 300);
+		}
+		return out;
+	}
+
+	private CommandParser<Primitives> parser;
+	private CommandParser<Repeated> repeatedParser;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Primitives.class);
+		repeatedParser = Command.compile(Repeated.class);
+	}
+
+	@Benchmark
+	public Primitives parse() {
+		return parser.parse(ARGS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REPEATS)
+	public Repeated parseIntList() {
+		return repeatedParser.parse(LIST_ARGS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REPEATS)
+	public Repeated parseIntArray() {
+		return repeatedParser.parse(ARRAY_ARGS);
+	}
+}
@@ -0,0 +1,83 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.CommandClient;
+import com.zarbosoft.pidgooncommand.CommandServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Repeated command invocations on one machine: launching a JVM that compiles and parses, launching a JVM client
+ * that asks a resident {@link CommandServer} over loopback, and the server round trip alone, as seen by a client
+ * that's already running (or a native one).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ServerBenchmark {
+	private CommandServer server;
+	private Thread thread;
+	private Path token;
+	private String java;
+
+	@Setup
+	public void setup() {
+		token = uncheck(() -> Files.createTempFile("pidgoon-command", ".token"));
+		server = new CommandServer(0).register(Shapes.CommandLine.class).writeToken(token);
+		thread = new Thread(server::run);
+		thread.start();
+		java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+		uncheck(() -> thread.join());
+		uncheck(() -> Files.delete(token));
+	}
+
+	private static int run(final List<String> command) {
+		return uncheck(() -> new ProcessBuilder(command)
+				.inheritIO()
+				.redirectOutput(new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null"))
+				.start()
+				.waitFor());
+	}
+
+	@Benchmark
+	public int coldLaunch() {
+		return run(Arrays.asList(java, "-cp", System.getProperty("java.class.path"), Startup.class.getName()));
+	}
+
+	@Benchmark
+	public int clientLaunch() {
+		final List<String> command = new ArrayList<>(Arrays.asList(java,
+				"-cp",
+				System.getProperty("java.class.path"),
+				CommandClient.class.getName(),
+				token.toString(),
+				Shapes.CommandLine.class.getName()
+		));
+		command.addAll(Arrays.asList(Shapes.COMMAND_LINE_ARGS));
+		return run(command);
+	}
+
+	@Benchmark
+	public CommandClient.Response roundTrip() {
+		try (CommandClient client = new CommandClient(server.port(), server.token())) {
+			return client.parse(Shapes.CommandLine.class.getName(), Shapes.COMMAND_LINE_ARGS);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.interface1.Configuration;
+import com.zarbosoft.pidgooncommand.Command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command classes with the same shape as the ones in the library tests.
+ */
+public class Shapes {
+	public static final String[] COMMAND_LINE_ARGS = new String[] {
+			"4", "true", "3.3", "waffel", "7", "B", "47", "xb", "12", "-f", "--out-of-names", "xa", "2384897"
+	};
+
+	@Configuration
+	public static class SubCommand1 {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+		@Configuration(name = "B", optional = true)
+		public int b = 44;
+	}
+
+	@Configuration
+	public static abstract class SubCommand2Base {
+
+	}
+
+	@Configuration(name = "xa")
+	public static class SubCommand2A extends SubCommand2Base {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+	}
+
+	@Configuration(name = "xb")
+	public static class SubCommand2B extends SubCommand2Base {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+	}
+
+	@Configuration
+	public static class CommandLine {
+		@Command.Argument(index = 0)
+		@Configuration(name = "ARG_A")
+		public int a;
+		@Command.Argument(index = 1)
+		@Configuration(name = "ARG_B")
+		public boolean b;
+		@Command.Argument(index = 2)
+		@Configuration(name = "ARG_C")
+		public double c;
+		@Command.Argument(index = 3)
+		@Configuration(name = "DANGEROUS")
+		public String d;
+		@Command.Argument(index = 4)
+		@Configuration(name = "GENERAL")
+		public SubCommand1 sub;
+		@Command.Argument(index = 5)
+		@Configuration(name = "SUBCOMMAND")
+		public SubCommand2Base sub2;
+		@Command.Argument(shortName = "-u")
+		@Configuration(name = "--ultima", optional = true)
+		public int e = 7;
+		@Command.Argument(shortName = "-f")
+		@Configuration(name = "--f")
+		public boolean f = false;
+		@Configuration(name = "--g", optional = true)
+		public double g;
+		@Configuration(optional = true)
+		public String h;
+		@Configuration(name = "--out-of-names", optional = true)
+		public SubCommand2Base sub3;
+	}
+
+	@Configuration
+	public static class MapHolder {
+		@Command.Argument(shortName = "-D")
+		@Configuration(name = "--define", optional = true)
+		public Map<String, Integer> defines;
+	}
+
+	/**
+	 * Arguments setting count entries of {@link MapHolder#defines}.
+	 *
+	 * @param count
+	 * @return
+	 */
+	public static String[] mapArgs(final int count) {
+		final String[] out = new String[count * 3];
+		for (int i = 0; i < count; ++i) {
+			out[i * 3] = "-D";
+			out[i * 3 + 1] = String.format("key%s", i);
+			out[i * 3 + 2] = Integer.toString(i);
+		}
+		return out;
+	}
+
+	@Configuration
+	public static class IncludeHolder {
+		@Command.Argument(shortName = "-I")
+		@Configuration(name = "--include", optional = true)
+		public List<String> include;
+		@Configuration(name = "-W", optional = true)
+		public List<String> warnings;
+		@Configuration(name = "-v", optional = true)
+		public boolean verbose;
+	}
+
+	/**
+	 * Arguments adding count paths to {@link IncludeHolder#include}, with a warning option after every tenth
+	 * path and the verbose flag in the middle.
+	 *
+	 * @param count
+	 * @return
+	 */
+	public static String[] includeArgs(final int count) {
+		final List<String> out = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			out.add("-I");
+			out.add(String.format("/usr/include/path%s", i));
+			if (i % 10 == 0) {
+				out.add("-W");
+				out.add(String.format("warning%s", i));
+			}
+			if (i == count / 2)
+				out.add("-v");
+		}
+		return out.toArray(new String[0]);
+	}
+}
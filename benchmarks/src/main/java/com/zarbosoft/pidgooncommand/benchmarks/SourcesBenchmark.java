@@ -0,0 +1,95 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.interface1.Configuration;
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.CommandParser;
+import com.zarbosoft.pidgooncommand.Sources;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Startup configuration from environment variables, a properties file and the command line, merged in the parse
+ * versus parsing the command line and then merging the other sources into the result reflectively.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SourcesBenchmark {
+	private CommandParser<Shapes.CommandLine> parser;
+	private Map<String, String> environment;
+	private Path file;
+	private String[] args;
+
+	@Setup
+	public void setup() {
+		parser = Command.compile(Shapes.CommandLine.class);
+		environment = new HashMap<>();
+		environment.put("APP_ULTIMA", "12");
+		environment.put("APP_G", "2.5");
+		environment.put("APP_H", "environment");
+		file = uncheck(() -> Files.createTempFile("pidgoon-command", ".properties"));
+		uncheck(() -> Files.write(file, "ultima=9\nh=file\n".getBytes(StandardCharsets.UTF_8)));
+		args = new String[] {"4", "true", "3.3", "waffel", "7", "B", "47", "xb", "12", "-f", "-u", "3"};
+	}
+
+	@TearDown
+	public void tearDown() {
+		uncheck(() -> Files.delete(file));
+	}
+
+	@Benchmark
+	public Shapes.CommandLine merged() {
+		return parser.parse(args, new Sources().environment("APP_", environment).file(file));
+	}
+
+	@Benchmark
+	public Shapes.CommandLine twoPass() {
+		final Shapes.CommandLine out = parser.parse(args);
+		final Properties properties = new Properties();
+		uncheck(() -> {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+		});
+		final Set<String> given = new HashSet<>(Arrays.asList(args));
+		for (final Field field : Shapes.CommandLine.class.getFields()) {
+			final Configuration configuration = field.getAnnotation(Configuration.class);
+			final Command.Argument argument = field.getAnnotation(Command.Argument.class);
+			if (configuration == null || argument != null && argument.index() >= 0)
+				continue;
+			final String name = configuration.name().isEmpty() ? field.getName() : configuration.name();
+			if (given.contains(name) || argument != null && given.contains(argument.shortName()))
+				continue;
+			final String key = name.replaceFirst("^-+", "");
+			String value = properties.getProperty(key);
+			if (value == null)
+				value = environment.get("APP_" + key.toUpperCase(Locale.ROOT).replace('-', '_'));
+			if (value == null)
+				continue;
+			final String value1 = value;
+			uncheck(() -> {
+				if (field.getType() == int.class)
+					field.setInt(out, Integer.parseInt(value1));
+				else if (field.getType() == double.class)
+					field.setDouble(out, Double.parseDouble(value1));
+				else if (field.getType() == boolean.class)
+					field.setBoolean(out, Boolean.parseBoolean(value1));
+				else if (field.getType() == String.class)
+					field.set(out, value1);
+			});
+		}
+		return out;
+	}
+}
@@ -0,0 +1,12 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+
+/**
+ * A minimal program that compiles and runs one parse, for timing whole process startup with {@code startup.sh}.
+ */
+public class Startup {
+	public static void main(final String[] args) {
+		Command.compile(Shapes.CommandLine.class).parse(Shapes.COMMAND_LINE_ARGS);
+	}
+}
@@ -0,0 +1,72 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.Command;
+import com.zarbosoft.pidgooncommand.SubclassIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Time to the first parse in a fresh JVM when building the model from the subclass index, loading it from a model
+ * cache, and loading the model generated at build time.  Each trial writes a new cache in a separate process so
+ * creating it doesn't warm up the measured JVM.  See {@code startup.sh} for the same comparison across JVM, AppCDS
+ * and native image runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+	@Param({"index", "cache", "generated"})
+	public String source;
+
+	private Path cache;
+
+	public static void main(final String[] args) {
+		Command.compile(Shapes.CommandLine.class, Paths.get(args[0]));
+	}
+
+	@Setup
+	public void setup() {
+		if (!source.equals("cache"))
+			return;
+		cache = uncheck(() -> Files.createTempDirectory("pidgoon-command-startup")).resolve("model");
+		uncheck(() -> new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp",
+				System.getProperty("java.class.path"),
+				StartupBenchmark.class.getName(),
+				cache.toString()
+		).inheritIO().start().waitFor());
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (cache == null)
+			return;
+		uncheck(() -> Files.deleteIfExists(cache));
+		uncheck(() -> Files.delete(cache.getParent()));
+	}
+
+	@Benchmark
+	public Shapes.CommandLine firstParse() {
+		switch (source) {
+			case "index":
+				return Command
+						.compile(SubclassIndex.load(Shapes.CommandLine.class.getClassLoader()), Shapes.CommandLine.class)
+						.parse(Shapes.COMMAND_LINE_ARGS);
+			case "cache":
+				return Command.compile(Shapes.CommandLine.class, cache).parse(Shapes.COMMAND_LINE_ARGS);
+			case "generated":
+				return Command.compile(Shapes.CommandLine.class).parse(Shapes.COMMAND_LINE_ARGS);
+			default:
+				throw new AssertionError();
+		}
+	}
+}
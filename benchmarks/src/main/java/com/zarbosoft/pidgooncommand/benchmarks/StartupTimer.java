@@ -0,0 +1,28 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a command repeatedly and prints the mean wall time per run, for {@code startup.sh}.  Arguments are a name
+ * for the output, the number of runs, then the command.  The command is run once first without timing.
+ */
+public class StartupTimer {
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final String name = args[0];
+		final int runs = Integer.parseInt(args[1]);
+		final List<String> command = Arrays.asList(args).subList(2, args.length);
+		run(command);
+		final long start = System.nanoTime();
+		for (int i = 0; i < runs; ++i)
+			run(command);
+		System.out.format("%s: %s ms per run\n", name, (System.nanoTime() - start) / runs / 1000000);
+	}
+
+	private static void run(final List<String> command) throws IOException, InterruptedException {
+		final int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (status != 0)
+			throw new IllegalStateException(String.format("%s exited with status %s.", command, status));
+	}
+}
@@ -0,0 +1,237 @@
+package com.zarbosoft.pidgooncommand.benchmarks;
+
+import com.zarbosoft.pidgooncommand.SubclassIndexProcessor;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Generates and compiles command classes of arbitrary size at benchmark setup time.
+ */
+public class Synthetic {
+	public static final String PACKAGE = "com.zarbosoft.pidgooncommand.synthetic";
+
+	/**
+	 * A command class with count optional keyword arguments, alternating int, String and boolean, named
+	 * --flag0, --flag1, etc.  It has a nested interface View exposing flag0 for lazy parsing.
+	 *
+	 * @param count
+	 * @return
+	 */
+	public static Class<?> keywords(final int count) {
+		final StringBuilder source = new StringBuilder();
+		source.append(String.format("package %s;\n", PACKAGE));
+		source.append("import com.zarbosoft.interface1.Configuration;\n");
+		source.append("@Configuration\n");
+		source.append(String.format("public class Keywords%s {\n", count));
+		for (int i = 0; i < count; ++i) {
+			source.append(String.format("@Configuration(name = \"--flag%s\", optional = true)\n", i));
+			source.append(String.format("public %s flag%s;\n", keywordType(i), i));
+		}
+		source.append("public interface View { int flag0(); }\n");
+		source.append("}\n");
+		return compile(String.format("Keywords%s", count), source.toString());
+	}
+
+	/**
+	 * Arguments setting every stride-th keyword of a {@link #keywords(int)} class.
+	 *
+	 * @param count
+	 * @param stride
+	 * @return
+	 */
+	public static String[] keywordArgs(final int count, final int stride) {
+		final List<String> out = new ArrayList<>();
+		for (int i = 0; i < count; i += stride) {
+			out.add(String.format("--flag%s", i));
+			switch (keywordType(i)) {
+				case "int":
+					out.add(Integer.toString(i));
+					break;
+				case "String":
+					out.add(String.format("value%s", i));
+					break;
+			}
+		}
+		return out.toArray(new String[0]);
+	}
+
+	/**
+	 * A command class nesting depth levels of abstract subcommands.  Each level has two implementations, named
+	 * a{level} and b{level}.  a{level} has width integer positional arguments, the next level as a final positional
+	 * argument, and width optional String keywords plus a list and a map keyword.  Keyword names include the level so
+	 * they never overlap.
+	 *
+	 * @param depth
+	 * @param width
+	 * @return
+	 */
+	public static Class<?> nested(final int depth, final int width) {
+		final String name = String.format("Nested%sx%s", depth, width);
+		final StringBuilder source = new StringBuilder();
+		source.append(String.format("package %s;\n", PACKAGE));
+		source.append("import com.zarbosoft.interface1.Configuration;\n");
+		source.append("import com.zarbosoft.pidgooncommand.Command;\n");
+		source.append("import java.util.List;\n");
+		source.append("import java.util.Map;\n");
+		source.append("@Configuration\n");
+		source.append(String.format("public class %s {\n", name));
+		source.append("@Command.Argument(index = 0)\n");
+		source.append("@Configuration(name = \"LEVEL\")\n");
+		source.append("public Level0 level;\n");
+		source.append("@Configuration(name = \"--verbose\", optional = true)\n");
+		source.append("public boolean verbose;\n");
+		for (int level = 0; level < depth; ++level) {
+			source.append("@Configuration\n");
+			source.append(String.format("public static abstract class Level%s {}\n", level));
+
+			source.append(String.format("@Configuration(name = \"a%s\")\n", level));
+			source.append(String.format("public static class Level%sA extends Level%s {\n", level, level));
+			for (int i = 0; i < width; ++i) {
+				source.append(String.format("@Command.Argument(index = %s)\n", i));
+				source.append(String.format("@Configuration(name = \"P%s\")\n", i));
+				source.append(String.format("public int p%s;\n", i));
+			}
+			if (level + 1 < depth) {
+				source.append(String.format("@Command.Argument(index = %s)\n", width));
+				source.append("@Configuration(name = \"NEXT\")\n");
+				source.append(String.format("public Level%s next;\n", level + 1));
+			}
+			for (int i = 0; i < width; ++i) {
+				source.append(String.format("@Configuration(name = \"--l%sk%s\", optional = true)\n", level, i));
+				source.append(String.format("public String k%s;\n", i));
+			}
+			source.append(String.format("@Configuration(name = \"--l%slist\", optional = true)\n", level));
+			source.append("public List<String> list;\n");
+			source.append(String.format("@Configuration(name = \"--l%smap\", optional = true)\n", level));
+			source.append("public Map<String, String> map;\n");
+			source.append("}\n");
+
+			source.append(String.format("@Configuration(name = \"b%s\")\n", level));
+			source.append(String.format("public static class Level%sB extends Level%s {\n", level, level));
+			source.append("@Command.Argument(index = 0)\n");
+			source.append("@Configuration(name = \"P0\")\n");
+			source.append("public int p0;\n");
+			source.append("}\n");
+		}
+		source.append("}\n");
+		return compile(name, source.toString());
+	}
+
+	/**
+	 * Arguments for a {@link #nested(int, int)} class selecting a{level} at every level, setting every positional
+	 * and keyword argument and repeating each list and map keyword width times.
+	 *
+	 * @param depth
+	 * @param width
+	 * @return
+	 */
+	public static String[] nestedArgs(final int depth, final int width) {
+		final List<String> out = new ArrayList<>();
+		for (int level = 0; level < depth; ++level) {
+			out.add(String.format("a%s", level));
+			for (int i = 0; i < width; ++i)
+				out.add(Integer.toString(i));
+		}
+		for (int level = depth - 1; level >= 0; --level) {
+			for (int i = 0; i < width; ++i) {
+				out.add(String.format("--l%sk%s", level, i));
+				out.add(String.format("value%s", i));
+			}
+			for (int i = 0; i < width; ++i) {
+				out.add(String.format("--l%slist", level));
+				out.add(String.format("item%s", i));
+			}
+			for (int i = 0; i < width; ++i) {
+				out.add(String.format("--l%smap", level));
+				out.add(String.format("key%s", i));
+				out.add(String.format("value%s", i));
+			}
+		}
+		out.add("--verbose");
+		return out.toArray(new String[0]);
+	}
+
+	/**
+	 * Argument vectors for a {@link #nested(int, int)} class that together reach every implementation at every
+	 * level: {@link #nestedArgs(int, int)}, then for each level one selecting a{level} above it and b{level} there.
+	 *
+	 * @param depth
+	 * @param width
+	 * @return
+	 */
+	public static List<String[]> nestedEverySubcommand(final int depth, final int width) {
+		final List<String[]> out = new ArrayList<>();
+		out.add(nestedArgs(depth, width));
+		for (int selected = 0; selected < depth; ++selected) {
+			final List<String> args = new ArrayList<>();
+			for (int level = 0; level < selected; ++level) {
+				args.add(String.format("a%s", level));
+				for (int i = 0; i < width; ++i)
+					args.add(Integer.toString(i));
+			}
+			args.add(String.format("b%s", selected));
+			args.add("0");
+			out.add(args.toArray(new String[0]));
+		}
+		return out;
+	}
+
+	private static String keywordType(final int i) {
+		switch (i % 3) {
+			case 0:
+				return "int";
+			case 1:
+				return "String";
+			default:
+				return "boolean";
+		}
+	}
+
+	/**
+	 * Compile a single class in {@link #PACKAGE} and load it in a new class loader.  The subclass index is generated
+	 * alongside it so {@link com.zarbosoft.pidgooncommand.Command#compile(Class)} finds its subcommands.
+	 *
+	 * @param name
+	 * @param source
+	 * @return
+	 */
+	public static Class<?> compile(final String name, final String source) {
+		return uncheck(() -> {
+			final Path root = Files.createTempDirectory("pidgoon-command-synthetic");
+			final Path sourcePath = root.resolve(String.format("%s.java", name));
+			Files.write(sourcePath, source.getBytes(StandardCharsets.UTF_8));
+			final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+			final int result = compiler.run(null,
+					null,
+					errors,
+					"-processor",
+					SubclassIndexProcessor.class.getName(),
+					"-classpath",
+					System.getProperty("java.class.path"),
+					"-d",
+					root.toString(),
+					sourcePath.toString()
+			);
+			if (result != 0)
+				throw new AssertionError(String.format("Failed to compile synthetic class %s:\n%s",
+						name,
+						new String(errors.toByteArray(), StandardCharsets.UTF_8)
+				));
+			final ClassLoader loader =
+					new URLClassLoader(new URL[] {root.toUri().toURL()}, Synthetic.class.getClassLoader());
+			return loader.loadClass(String.format("%s.%s", PACKAGE, name));
+		});
+	}
+}
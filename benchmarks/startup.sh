@@ -0,0 +1,34 @@
+#!/bin/sh
+# Compare process startup to the first parse as a plain JVM, with an AppCDS archive and as a native image.
+# Build first with `mvn package` so target/benchmarks.jar contains the generated model and native-image
+# configuration.  AppCDS archiving with -XX:ArchiveClassesAtExit needs JDK 13 or newer and the native image needs
+# GraalVM's native-image on the path; modes whose tools are missing are skipped.
+set -e
+cd "$(dirname "$0")"
+JAR=target/benchmarks.jar
+MAIN=com.zarbosoft.pidgooncommand.benchmarks.Startup
+RUNS=${RUNS:-20}
+WORK=target/startup
+mkdir -p "$WORK"
+
+# Timed from Java since date can't measure milliseconds portably
+time_runs() {
+	name=$1
+	shift
+	java -cp "$JAR" com.zarbosoft.pidgooncommand.benchmarks.StartupTimer "$name" "$RUNS" "$@"
+}
+
+time_runs jvm java -cp "$JAR" "$MAIN"
+
+if java -XX:ArchiveClassesAtExit="$WORK/app.jsa" -cp "$JAR" "$MAIN" 2>/dev/null; then
+	time_runs appcds java -XX:SharedArchiveFile="$WORK/app.jsa" -cp "$JAR" "$MAIN"
+else
+	echo "appcds: skipped, needs JDK 13 or newer"
+fi
+
+if command -v native-image >/dev/null; then
+	native-image --no-fallback -cp "$JAR" -o "$WORK/startup" "$MAIN"
+	time_runs native "$WORK/startup"
+else
+	echo "native: skipped, native-image not found"
+fi
@@ -0,0 +1,100 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.events.MatchingEvent;
+
+import java.util.Map;
+
+/**
+ * A single command line argument.  Events in the grammar have a null context, and a null value to match any
+ * argument.
+ */
+class ArgEvent implements MatchingEvent {
+	private final String value;
+	public final ParseContext context;
+	private boolean hasInt = false;
+	private int intValue;
+	private boolean hasDouble = false;
+	private double doubleValue;
+
+	public ArgEvent(final String arg, final ParseContext context) {
+		this.value = arg;
+		this.context = context;
+	}
+
+	public ArgEvent(final String arg) {
+		this(arg, null);
+	}
+
+	public ArgEvent() {
+		this(null, null);
+	}
+
+	public String value() {
+		return value;
+	}
+
+	public int parseInt() {
+		return Integer.parseInt(value());
+	}
+
+	public double parseDouble() {
+		return Double.parseDouble(value());
+	}
+
+	/**
+	 * Like {@link #parseInt()} but only parses once.  Lets numbers be passed around as the event rather than boxed.
+	 *
+	 * @return
+	 */
+	public int intValue() {
+		if (!hasInt) {
+			intValue = parseInt();
+			hasInt = true;
+		}
+		return intValue;
+	}
+
+	public double doubleValue() {
+		if (!hasDouble) {
+			doubleValue = parseDouble();
+			hasDouble = true;
+		}
+		return doubleValue;
+	}
+
+	/**
+	 * Count a grammar terminal testing this argument, if the parse is being measured.
+	 */
+	public void tested() {
+		if (context != null && context.listener != null)
+			context.tested += 1;
+	}
+
+	public boolean valueEquals(final String other) {
+		return other.equals(value());
+	}
+
+	/**
+	 * @param lookup
+	 * @param maxBytes the longest UTF-8 encoded key in lookup, for rejecting arguments without decoding them
+	 * @return
+	 */
+	public boolean matchesKey(final Map<String, ?> lookup, final int maxBytes) {
+		return lookup.containsKey(value());
+	}
+
+	public boolean matches(final MatchingEvent event) {
+		if (!(event instanceof ArgEvent))
+			return false;
+		((ArgEvent) event).tested();
+		if (value == null)
+			return true;
+		return ((ArgEvent) event).valueEquals(value);
+	}
+
+	@Override
+	public String toString() {
+		final String value = value();
+		return value == null ? "*" : value;
+	}
+}
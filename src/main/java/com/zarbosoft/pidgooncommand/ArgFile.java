@@ -0,0 +1,139 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory maps an argument file and splits it into arguments lazily, using the same rules as {@link ArgReader}.
+ * Arguments are produced as spans of the mapping; nothing is copied until a value is needed.
+ */
+class ArgFile {
+	private final MappedByteBuffer buffer;
+	private final int limit;
+	private int position = 0;
+
+	ArgFile(final Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(String.format("Argument file %s is too large.", path));
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			limit = (int) size;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * An argument file that couldn't be read, with the position of the argument naming it.
+	 */
+	static class Unreadable extends UncheckedIOException {
+		/**
+		 * 0-based index of the argument naming the file.
+		 */
+		final int index;
+
+		Unreadable(final int index, final IOException cause) {
+			super(cause);
+			this.index = index;
+		}
+	}
+
+	/**
+	 * @param args
+	 * @param context the context of the stream the arguments will be pushed to, or null
+	 * @return args with each argument starting with @ replaced by the arguments in the file at the rest of the
+	 * argument, or null if there are no argument files.  Argument files aren't expanded recursively.
+	 * @throws Unreadable if an argument file can't be read
+	 */
+	public static ArgEvent[] expand(final String[] args, final ParseContext context) {
+		boolean found = false;
+		for (final String arg : args)
+			if (arg.startsWith("@")) {
+				found = true;
+				break;
+			}
+		if (!found)
+			return null;
+		final List<ArgEvent> out = new ArrayList<>(args.length);
+		for (int i = 0; i < args.length; ++i) {
+			final String arg = args[i];
+			if (!arg.startsWith("@")) {
+				out.add(new ArgEvent(arg, context));
+				continue;
+			}
+			final ArgFile file;
+			try {
+				file = new ArgFile(Paths.get(arg.substring(1)));
+			} catch (final UncheckedIOException e) {
+				throw new Unreadable(i, e.getCause());
+			} catch (final InvalidPathException e) {
+				throw new Unreadable(i, new IOException(e.getMessage(), e));
+			}
+			ArgEvent event;
+			while ((event = file.next(context)) != null)
+				out.add(event);
+		}
+		return out.toArray(new ArgEvent[0]);
+	}
+
+	/**
+	 * Whitespace is as in {@link ArgReader}, {@link Character#isWhitespace(int)}.  Outside ASCII every whitespace
+	 * character is encoded in three bytes, so only those sequences are decoded.
+	 *
+	 * @param at
+	 * @return the length in bytes of the whitespace character at at, or 0 if it isn't whitespace
+	 */
+	private int whitespace(final int at) {
+		final int b = buffer.get(at) & 0xff;
+		if (b < 0x80)
+			return Character.isWhitespace(b) ? 1 : 0;
+		if ((b & 0xf0) != 0xe0 || at + 2 >= limit)
+			return 0;
+		final int b1 = buffer.get(at + 1) & 0xff;
+		final int b2 = buffer.get(at + 2) & 0xff;
+		if ((b1 & 0xc0) != 0x80 || (b2 & 0xc0) != 0x80)
+			return 0;
+		return Character.isWhitespace(((b & 0x0f) << 12) | ((b1 & 0x3f) << 6) | (b2 & 0x3f)) ? 3 : 0;
+	}
+
+	/**
+	 * @param context
+	 * @return the next argument or null at the end of the file
+	 */
+	public ArgEvent next(final ParseContext context) {
+		int skip;
+		while (position < limit && (skip = whitespace(position)) > 0)
+			position += skip;
+		if (position == limit)
+			return null;
+		final int start = position;
+		boolean quoted = false;
+		byte quote = 0;
+		for (; position < limit; ++position) {
+			final byte b = buffer.get(position);
+			if (b == '\\') {
+				quoted = true;
+				position += 1;
+			} else if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quoted = true;
+				quote = b;
+			} else if (whitespace(position) > 0)
+				break;
+		}
+		// A backslash at the end of the file skips past it
+		position = Math.min(position, limit);
+		return new MappedArgEvent(buffer, start, position, quoted, context);
+	}
+}
@@ -0,0 +1,21 @@
+package com.zarbosoft.pidgooncommand;
+
+/**
+ * The position of an argument as passed to the grammar.  Only formatted if the parse fails and the position is
+ * reported.
+ */
+class ArgPosition {
+	/**
+	 * 1-based.
+	 */
+	public final int number;
+
+	ArgPosition(final int number) {
+		this.number = number;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("arg %s", number);
+	}
+}
@@ -0,0 +1,74 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits text into arguments on whitespace, honoring single quotes, double quotes and backslash escapes.
+ */
+class ArgReader implements Iterator<String> {
+	private final Reader reader;
+	private final StringBuilder builder = new StringBuilder();
+	private String next;
+
+	ArgReader(final Reader reader) {
+		this.reader = reader;
+	}
+
+	private int read() {
+		try {
+			return reader.read();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private String advance() {
+		int c;
+		do {
+			c = read();
+		} while (c != -1 && Character.isWhitespace(c));
+		if (c == -1)
+			return null;
+		builder.setLength(0);
+		char quote = 0;
+		for (; c != -1; c = read()) {
+			if (c == '\\') {
+				c = read();
+				if (c == -1)
+					break;
+				builder.append((char) c);
+			} else if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+				else
+					builder.append((char) c);
+			} else if (c == '"' || c == '\'') {
+				quote = (char) c;
+			} else if (Character.isWhitespace(c)) {
+				break;
+			} else
+				builder.append((char) c);
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null)
+			next = advance();
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		final String out = next;
+		next = null;
+		return out;
+	}
+}
@@ -0,0 +1,641 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Creates and fills instances of a concrete argument class.  All reflective lookups happen when the first instance
+ * is created, so classes that are never parsed cost nothing beyond the binder itself, and populating an object only
+ * invokes prebuilt method handles.
+ */
+class Binder {
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/**
+	 * Bound in place of collection elements that were passed to a stream listener instead.
+	 */
+	public static final Object CONSUMED = new Object();
+
+	private final Class<?> klass;
+	private volatile MethodHandle constructor;
+	private final List<FieldBinder> fields = new ArrayList<>();
+	private final Map<CommandModel.FieldModel, FieldBinder> byModel = new IdentityHashMap<>();
+
+	/**
+	 * Create binders for every positional then keyword field of the class.
+	 *
+	 * @param concrete
+	 */
+	Binder(final CommandModel.Concrete concrete) {
+		this.klass = concrete.klass;
+		concrete.positional.forEach(this::add);
+		concrete.keyword.forEach(this::add);
+	}
+
+	public Object create() {
+		MethodHandle constructor = this.constructor;
+		if (constructor == null)
+			constructor = resolve();
+		try {
+			return (Object) constructor.invokeExact();
+		} catch (final Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	/**
+	 * Look up the constructor and field handles.  Fields are only bound on objects from {@link #create()} so this
+	 * happens before any field binder is used.
+	 *
+	 * @return the constructor
+	 */
+	private synchronized MethodHandle resolve() {
+		if (constructor != null)
+			return constructor;
+		for (final FieldBinder field : fields)
+			field.resolve();
+		return constructor = uncheck(() -> MethodHandles
+				.publicLookup()
+				.findConstructor(klass, MethodType.methodType(void.class))
+				.asType(CONSTRUCTOR_TYPE));
+	}
+
+	/**
+	 * @param model a field of the class this binder was created for
+	 * @return
+	 */
+	public FieldBinder field(final CommandModel.FieldModel model) {
+		return byModel.get(model);
+	}
+
+	/**
+	 * Create a binder for a field based on its type.
+	 *
+	 * @param model
+	 */
+	private void add(final CommandModel.FieldModel model) {
+		final Field field = model.field;
+		final FieldBinder out;
+		if (field.getType() == int[].class)
+			out = new IntArrayBinder(field);
+		else if (field.getType() == IntList.class)
+			out = new IntListBinder(field);
+		else if (field.getType() == double[].class)
+			out = new DoubleArrayBinder(field);
+		else if (field.getType() == DoubleList.class)
+			out = new DoubleListBinder(field);
+		else if (List.class.isAssignableFrom(field.getType()))
+			out = new CollectionBinder(field, ArrayList::new);
+		else if (Set.class.isAssignableFrom(field.getType()))
+			out = new CollectionBinder(field, count -> new HashSet<>(Math.max(16, (int) (count / 0.75f) + 1)));
+		else if (Collection.class.isAssignableFrom(field.getType()))
+			throw new AssertionError(String.format("Can't handle collection type %s.", field.getType()));
+		else if (Map.class.isAssignableFrom(field.getType()))
+			out = new MapBinder(field);
+		else if (field.getType() == int.class)
+			out = new IntBinder(field);
+		else if (field.getType() == double.class)
+			out = new DoubleBinder(field);
+		else
+			out = new FieldBinder(field, false, field.getType());
+		out.index = fields.size();
+		out.name = model.name;
+		out.required = model.index >= 0 || !model.optional;
+		out.earlyExit = model.earlyExit;
+		fields.add(out);
+		byModel.put(model, out);
+	}
+
+	public int size() {
+		return fields.size();
+	}
+
+	/**
+	 * Prepare repeatable fields for the number of values about to be bound, after which values can be bound with
+	 * {@link FieldBinder#bindReserved(Object, Object, int)}.
+	 *
+	 * @param out
+	 * @param counts number of values to be bound for each field, by index
+	 */
+	public void reserve(final Object out, final int[] counts) {
+		for (final FieldBinder field : fields)
+			if (field.repeatable && counts[field.index] > 0)
+				field.reserve(out, counts[field.index]);
+	}
+
+	/**
+	 * Called after the values of every field are bound.
+	 *
+	 * @param out
+	 * @param counts number of values bound for each field, by index
+	 */
+	public void finish(final Object out, final int[] counts) {
+		for (final FieldBinder field : fields)
+			if (field.repeatable && counts[field.index] > 0)
+				field.finish(out, counts[field.index]);
+	}
+
+	/**
+	 * Abort if a required field has no value.  Skipped if an early exit argument was seen.
+	 *
+	 * @param counts number of values bound for each field, by index
+	 */
+	public void checkRequired(final int[] counts) {
+		for (final FieldBinder field : fields)
+			if (field.earlyExit && counts[field.index] > 0)
+				return;
+		for (final FieldBinder field : fields)
+			if (field.required && counts[field.index] == 0)
+				throw new AbortParse(String.format("Missing required argument %s.", field.name));
+	}
+
+	/**
+	 * Numbers for primitive lists are bound as the event, or as the argument itself by the fast parser.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static int intValue(final Object value) {
+		if (value instanceof ArgEvent)
+			return ((ArgEvent) value).intValue();
+		if (value instanceof String)
+			return Integer.parseInt((String) value);
+		return ((Number) value).intValue();
+	}
+
+	private static double doubleValue(final Object value) {
+		if (value instanceof ArgEvent)
+			return ((ArgEvent) value).doubleValue();
+		if (value instanceof String)
+			return Double.parseDouble((String) value);
+		return ((Number) value).doubleValue();
+	}
+
+	private static RuntimeException rethrow(final Throwable e) {
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		return new RuntimeException(e);
+	}
+
+	/**
+	 * @param field
+	 * @param parameter
+	 * @return the class of a type parameter of the field's type, or Object if it can't be determined
+	 */
+	private static Class<?> typeParameter(final Field field, final int parameter) {
+		final Type type = field.getGenericType();
+		if (!(type instanceof ParameterizedType))
+			return Object.class;
+		final Type argument = ((ParameterizedType) type).getActualTypeArguments()[parameter];
+		return argument instanceof Class ? (Class<?>) argument : Object.class;
+	}
+
+	public static class FieldBinder {
+		public final Field field;
+		public String name;
+		public final boolean repeatable;
+		public int index;
+		public boolean required;
+		public boolean earlyExit;
+		protected MethodHandle setter;
+		private final Class<?> valueType;
+
+		private FieldBinder(final Field field, final boolean repeatable, final Class<?> valueType) {
+			this.field = field;
+			this.repeatable = repeatable;
+			this.valueType = valueType;
+		}
+
+		protected void resolve() {
+			setter = uncheck(() -> MethodHandles.publicLookup().unreflectSetter(field).asType(SETTER_TYPE));
+		}
+
+		protected MethodHandle getter() {
+			return uncheck(() -> MethodHandles.publicLookup().unreflectGetter(field).asType(GETTER_TYPE));
+		}
+
+		/**
+		 * Numbers are pushed as the event they were parsed from rather than boxed.  Box them for fields that need
+		 * an object.
+		 *
+		 * @param value
+		 * @return
+		 */
+		public Object box(final Object value) {
+			if (!(value instanceof ArgEvent))
+				return value;
+			if (valueType == Integer.class || valueType == int.class)
+				return ((ArgEvent) value).intValue();
+			if (valueType == Double.class || valueType == double.class)
+				return ((ArgEvent) value).doubleValue();
+			return ((ArgEvent) value).value();
+		}
+
+		protected void set(final Object out, final Object value) {
+			try {
+				setter.invokeExact(out, value);
+			} catch (final Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		protected Object get(final MethodHandle getter, final Object out) {
+			try {
+				return (Object) getter.invokeExact(out);
+			} catch (final Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		/**
+		 * Called before a repeatable field's values are bound if the number of values is known.
+		 *
+		 * @param out
+		 * @param count
+		 */
+		public void reserve(final Object out, final int count) {
+		}
+
+		/**
+		 * Store a parsed value.  Collection binders are called once per element, in argument order.
+		 *
+		 * @param out
+		 * @param value
+		 */
+		public void bind(final Object out, final Object value) {
+			set(out, box(value));
+		}
+
+		/**
+		 * Like {@link #bind(Object, Object)} with the number of values already bound to this field on out.  Values
+		 * must be bound in order starting from 0, followed by {@link Binder#finish(Object, int[])}.
+		 *
+		 * @param out
+		 * @param value
+		 * @param ordinal
+		 */
+		public void bind(final Object out, final Object value, final int ordinal) {
+			bind(out, value);
+		}
+
+		/**
+		 * Like {@link #bind(Object, Object, int)} for a field reserved for more than ordinal values with
+		 * {@link Binder#reserve(Object, int[])}.
+		 *
+		 * @param out
+		 * @param value
+		 * @param ordinal
+		 */
+		public void bindReserved(final Object out, final Object value, final int ordinal) {
+			bind(out, value, ordinal);
+		}
+
+		/**
+		 * Called after the last value of a repeatable field is bound.
+		 *
+		 * @param out
+		 * @param count the number of values bound
+		 */
+		public void finish(final Object out, final int count) {
+		}
+	}
+
+	private static class IntBinder extends FieldBinder {
+		private MethodHandle intSetter;
+
+		private IntBinder(final Field field) {
+			super(field, false, int.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			intSetter = uncheck(() -> MethodHandles
+					.publicLookup()
+					.unreflectSetter(field)
+					.asType(MethodType.methodType(void.class, Object.class, int.class)));
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			if (!(value instanceof ArgEvent)) {
+				super.bind(out, value);
+				return;
+			}
+			try {
+				intSetter.invokeExact(out, ((ArgEvent) value).intValue());
+			} catch (final Throwable e) {
+				throw rethrow(e);
+			}
+		}
+	}
+
+	private static class DoubleBinder extends FieldBinder {
+		private MethodHandle doubleSetter;
+
+		private DoubleBinder(final Field field) {
+			super(field, false, double.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			doubleSetter = uncheck(() -> MethodHandles
+					.publicLookup()
+					.unreflectSetter(field)
+					.asType(MethodType.methodType(void.class, Object.class, double.class)));
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			if (!(value instanceof ArgEvent)) {
+				super.bind(out, value);
+				return;
+			}
+			try {
+				doubleSetter.invokeExact(out, ((ArgEvent) value).doubleValue());
+			} catch (final Throwable e) {
+				throw rethrow(e);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the field with a new array of the reserved size, or if the number of values isn't known when the first
+	 * value is bound, doubling it as it fills.  The array is trimmed to the number of values bound.
+	 */
+	private static class IntArrayBinder extends FieldBinder {
+		private MethodHandle getter;
+
+		private IntArrayBinder(final Field field) {
+			super(field, true, int.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			throw new AssertionError("Array elements are bound with their ordinal.");
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			set(out, new int[count]);
+		}
+
+		@Override
+		public void bindReserved(final Object out, final Object value, final int ordinal) {
+			((int[]) get(getter, out))[ordinal] = intValue(value);
+		}
+
+		@Override
+		public void bind(final Object out, final Object value, final int ordinal) {
+			int[] array;
+			if (ordinal == 0) {
+				array = new int[CollectionBinder.DEFAULT_CAPACITY];
+				set(out, array);
+			} else {
+				array = (int[]) get(getter, out);
+				if (ordinal == array.length) {
+					array = Arrays.copyOf(array, ordinal * 2);
+					set(out, array);
+				}
+			}
+			array[ordinal] = intValue(value);
+		}
+
+		@Override
+		public void finish(final Object out, final int count) {
+			final int[] array = (int[]) get(getter, out);
+			if (array != null && array.length != count)
+				set(out, Arrays.copyOf(array, count));
+		}
+	}
+
+	private static class DoubleArrayBinder extends FieldBinder {
+		private MethodHandle getter;
+
+		private DoubleArrayBinder(final Field field) {
+			super(field, true, double.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			throw new AssertionError("Array elements are bound with their ordinal.");
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			set(out, new double[count]);
+		}
+
+		@Override
+		public void bindReserved(final Object out, final Object value, final int ordinal) {
+			((double[]) get(getter, out))[ordinal] = doubleValue(value);
+		}
+
+		@Override
+		public void bind(final Object out, final Object value, final int ordinal) {
+			double[] array;
+			if (ordinal == 0) {
+				array = new double[CollectionBinder.DEFAULT_CAPACITY];
+				set(out, array);
+			} else {
+				array = (double[]) get(getter, out);
+				if (ordinal == array.length) {
+					array = Arrays.copyOf(array, ordinal * 2);
+					set(out, array);
+				}
+			}
+			array[ordinal] = doubleValue(value);
+		}
+
+		@Override
+		public void finish(final Object out, final int count) {
+			final double[] array = (double[]) get(getter, out);
+			if (array != null && array.length != count)
+				set(out, Arrays.copyOf(array, count));
+		}
+	}
+
+	private static class IntListBinder extends FieldBinder {
+		private MethodHandle getter;
+
+		private IntListBinder(final Field field) {
+			super(field, true, int.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			final IntList list = (IntList) get(getter, out);
+			if (list == null)
+				set(out, new IntList(count));
+			else
+				list.reserve(count);
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			IntList list = (IntList) get(getter, out);
+			if (list == null) {
+				list = new IntList();
+				set(out, list);
+			}
+			list.add(intValue(value));
+		}
+	}
+
+	private static class DoubleListBinder extends FieldBinder {
+		private MethodHandle getter;
+
+		private DoubleListBinder(final Field field) {
+			super(field, true, double.class);
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			final DoubleList list = (DoubleList) get(getter, out);
+			if (list == null)
+				set(out, new DoubleList(count));
+			else
+				list.reserve(count);
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			DoubleList list = (DoubleList) get(getter, out);
+			if (list == null) {
+				list = new DoubleList();
+				set(out, list);
+			}
+			list.add(doubleValue(value));
+		}
+	}
+
+	private static class CollectionBinder extends FieldBinder {
+		private static final int DEFAULT_CAPACITY = 10;
+		private MethodHandle getter;
+		/**
+		 * Creates a collection with room for the number of elements.
+		 */
+		private final IntFunction<Collection<Object>> create;
+
+		private CollectionBinder(final Field field, final IntFunction<Collection<Object>> create) {
+			super(field, true, typeParameter(field, 0));
+			this.create = create;
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			final Collection collection = (Collection) get(getter, out);
+			if (collection == null)
+				set(out, create.apply(count));
+			else if (collection instanceof ArrayList)
+				((ArrayList) collection).ensureCapacity(collection.size() + count);
+		}
+
+		@Override
+		public void bind(final Object out, final Object value) {
+			if (value == CONSUMED)
+				return;
+			Collection collection = (Collection) get(getter, out);
+			if (collection == null) {
+				collection = create.apply(DEFAULT_CAPACITY);
+				set(out, collection);
+			}
+			collection.add(box(value));
+		}
+	}
+
+	private static class MapBinder extends FieldBinder {
+		private MethodHandle getter;
+
+		private MapBinder(final Field field) {
+			super(field, true, typeParameter(field, 1));
+		}
+
+		@Override
+		protected void resolve() {
+			super.resolve();
+			getter = getter();
+		}
+
+		/**
+		 * Entries are pushed as a key and unboxed value.
+		 *
+		 * @param value
+		 * @return
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object box(final Object value) {
+			final Pair<String, Object> pair = (Pair<String, Object>) value;
+			if (!(pair.second instanceof ArgEvent))
+				return pair;
+			return new Pair<>(pair.first, super.box(pair.second));
+		}
+
+		@Override
+		public void reserve(final Object out, final int count) {
+			if (get(getter, out) == null)
+				set(out, new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1)));
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void bind(final Object out, final Object value) {
+			if (value == CONSUMED)
+				return;
+			Map<Object, Object> map = (Map<Object, Object>) get(getter, out);
+			if (map == null) {
+				map = new HashMap<>();
+				set(out, map);
+			}
+			final Pair<String, Object> pair = (Pair<String, Object>) value;
+			map.put(pair.first, super.box(pair.second));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Sends requests to a {@link CommandServer} on the same machine.  One connection can be used for any number of
+ * requests, but not from multiple threads at once.
+ */
+public class CommandClient implements Closeable {
+	private final String token;
+	private final SocketChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(4);
+
+	/**
+	 * @param port
+	 * @param token from {@link CommandServer#token()}
+	 */
+	public CommandClient(final int port, final String token) {
+		this.token = token;
+		try {
+			channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			channel.socket().setTcpNoDelay(true);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Connect to the server that wrote the token file.
+	 *
+	 * @param tokenFile from {@link CommandServer#writeToken(Path)}
+	 * @return
+	 */
+	public static CommandClient connect(final Path tokenFile) {
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(tokenFile, StandardCharsets.UTF_8);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (lines.size() < 2)
+			throw new IllegalArgumentException(String.format("%s is not a server token file.", tokenFile));
+		return new CommandClient(Integer.parseInt(lines.get(0)), lines.get(1));
+	}
+
+	/**
+	 * Parse the arguments on the server, print the response and exit with 0 if it succeeded or 1 if not.
+	 *
+	 * @param args the server's token file, the root class name, then the arguments to parse
+	 */
+	public static void main(final String[] args) {
+		if (args.length < 2)
+			throw new IllegalArgumentException("Usage: CommandClient TOKEN_FILE ROOT [ARG...]");
+		final String[] rest = new String[args.length - 2];
+		System.arraycopy(args, 2, rest, 0, rest.length);
+		final Response response;
+		try (CommandClient client = connect(Paths.get(args[0]))) {
+			response = client.parse(args[1], rest);
+		}
+		(response.succeeded ? System.out : System.err).print(response.text);
+		System.exit(response.succeeded ? 0 : 1);
+	}
+
+	public static class Response {
+		public final boolean succeeded;
+		/**
+		 * The description of the parsed command, help, completions or error message.
+		 */
+		public final String text;
+
+		private Response(final boolean succeeded, final String text) {
+			this.succeeded = succeeded;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * @param root
+	 * @param args
+	 * @return the parsed command in the format described in {@link CommandServer}
+	 */
+	public Response parse(final String root, final String[] args) {
+		return request(CommandServer.PARSE, root, args);
+	}
+
+	/**
+	 * @param root
+	 * @param usagePrefix
+	 * @return
+	 */
+	public Response help(final String root, final String usagePrefix) {
+		return request(CommandServer.HELP, root, new String[] {usagePrefix});
+	}
+
+	/**
+	 * @param root
+	 * @param prefix
+	 * @return the completions, one per line
+	 */
+	public Response complete(final String root, final String[] prefix) {
+		return request(CommandServer.COMPLETE, root, prefix);
+	}
+
+	private Response request(final byte kind, final String root, final String[] args) {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeUTF(token);
+			out.writeByte(kind);
+			out.writeUTF(root);
+			out.writeInt(args.length);
+			for (final String arg : args)
+				out.writeUTF(arg);
+			final ByteBuffer request = ByteBuffer.wrap(bytes.toByteArray());
+			request.putInt(0, request.limit() - 4);
+			while (request.hasRemaining())
+				channel.write(request);
+			header.clear();
+			readFully(header);
+			final ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+			readFully(body);
+			return new Response(body.get(0) == CommandServer.OK,
+					new String(body.array(), 1, body.limit() - 1, StandardCharsets.UTF_8)
+			);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void readFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new EOFException("Server closed the connection.");
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.interface1.Configuration;
+import com.zarbosoft.interface1.Walk;
+import com.zarbosoft.rendaw.common.Pair;
+import org.reflections.Reflections;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Everything about a root class that's needed to build its grammar.  Extracted from the classes with
+ * {@link Walk} and checked by {@link ModelValidator} once, or read back from a {@link ModelCache}.
+ */
+class CommandModel {
+	public final Class<?> root;
+	public final Value value;
+	/**
+	 * Every concrete class reachable from the root, in the order they were visited.
+	 */
+	public final Map<Class<?>, Concrete> concrete;
+
+	CommandModel(final Class<?> root, final Value value, final Map<Class<?>, Concrete> concrete) {
+		this.root = root;
+		this.value = value;
+		this.concrete = concrete;
+	}
+
+	/**
+	 * @return every keyword, enum value and subclass name, plus true and false if there are boolean arguments
+	 */
+	public SortedSet<String> names() {
+		final SortedSet<String> out = new TreeSet<>();
+		for (final Concrete concrete : this.concrete.values()) {
+			for (final FieldModel field : concrete.positional)
+				names(out, field.value);
+			for (final FieldModel field : concrete.keyword) {
+				if (!field.shortName.isEmpty())
+					out.add(field.shortName);
+				out.add(field.name);
+				if (!field.isFlag())
+					names(out, field.value);
+			}
+		}
+		return out;
+	}
+
+	private static void names(final Set<String> out, final Value value) {
+		switch (value.kind) {
+			case BOOLEAN:
+				out.add("true");
+				out.add("false");
+				break;
+			case ENUM:
+				value.enumValues.forEach(pair -> out.add(pair.first));
+				break;
+			case LIST:
+			case SET:
+			case INTEGER_LIST:
+			case DOUBLE_LIST:
+			case MAP:
+				names(out, value.inner);
+				break;
+			case ABSTRACT:
+				value.derived.forEach(pair -> out.add(pair.first));
+				break;
+			default:
+		}
+	}
+
+	public enum Kind {
+		STRING,
+		INTEGER,
+		DOUBLE,
+		BOOLEAN,
+		ENUM,
+		LIST,
+		SET,
+		/**
+		 * int[] or {@link IntList}, filled without boxing.
+		 */
+		INTEGER_LIST,
+		/**
+		 * double[] or {@link DoubleList}, filled without boxing.
+		 */
+		DOUBLE_LIST,
+		MAP,
+		ABSTRACT,
+		CONCRETE
+	}
+
+	/**
+	 * The type of a field or collection element.
+	 */
+	public static class Value {
+		public final Kind kind;
+		/**
+		 * The enum, abstract or concrete class, otherwise null.
+		 */
+		public final Class<?> klass;
+		/**
+		 * The element value for lists, sets, primitive lists and maps, otherwise null.
+		 */
+		public final Value inner;
+		/**
+		 * Enum values by argument name, otherwise null.
+		 */
+		public final List<Pair<String, Object>> enumValues;
+		/**
+		 * Derived class values by argument name for abstract classes, otherwise null.
+		 */
+		public final List<Pair<String, Value>> derived;
+
+		Value(
+				final Kind kind,
+				final Class<?> klass,
+				final Value inner,
+				final List<Pair<String, Object>> enumValues,
+				final List<Pair<String, Value>> derived
+		) {
+			this.kind = kind;
+			this.klass = klass;
+			this.inner = inner;
+			this.enumValues = enumValues;
+			this.derived = derived;
+		}
+
+		public static Value scalar(final Kind kind) {
+			return new Value(kind, null, null, null, null);
+		}
+
+		public static Value container(final Kind kind, final Value inner) {
+			return new Value(kind, null, inner, null, null);
+		}
+
+		public static Value enumeration(final Class<?> klass, final List<Pair<String, Object>> values) {
+			return new Value(Kind.ENUM, klass, null, values, null);
+		}
+
+		public static Value abstractClass(final Class<?> klass, final List<Pair<String, Value>> derived) {
+			return new Value(Kind.ABSTRACT, klass, null, null, derived);
+		}
+
+		public static Value concreteClass(final Class<?> klass) {
+			return new Value(Kind.CONCRETE, klass, null, null, null);
+		}
+	}
+
+	public static class Concrete {
+		public final Class<?> klass;
+		public final String name;
+		/**
+		 * Sorted by index.
+		 */
+		public final List<FieldModel> positional;
+		public final List<FieldModel> keyword;
+
+		Concrete(
+				final Class<?> klass,
+				final String name,
+				final List<FieldModel> positional,
+				final List<FieldModel> keyword
+		) {
+			this.klass = klass;
+			this.name = name;
+			this.positional = positional;
+			this.keyword = keyword;
+		}
+	}
+
+	public static class FieldModel {
+		public final Field field;
+		public final String name;
+		/**
+		 * Empty if there is no short name.
+		 */
+		public final String shortName;
+		/**
+		 * -1 for keyword arguments.
+		 */
+		public final int index;
+		public final boolean optional;
+		public final boolean earlyExit;
+		public final String description;
+		public final Value value;
+
+		FieldModel(
+				final Field field,
+				final String name,
+				final String shortName,
+				final int index,
+				final boolean optional,
+				final boolean earlyExit,
+				final String description,
+				final Value value
+		) {
+			this.field = field;
+			this.name = name;
+			this.shortName = shortName;
+			this.index = index;
+			this.optional = optional;
+			this.earlyExit = earlyExit;
+			this.description = description;
+			this.value = value;
+		}
+
+		public boolean isFlag() {
+			return field.getType() == Boolean.class || field.getType() == Boolean.TYPE;
+		}
+
+		private static FieldModel of(final Command.Argument argument, final Field field, final Value value) {
+			return new FieldModel(field,
+					Walk.decideName(field),
+					argument == null ? "" : argument.shortName(),
+					argument == null ? -1 : argument.index(),
+					field.getAnnotation(Configuration.class).optional(),
+					argument != null && argument.earlyExit(),
+					argument == null ? "" : argument.description(),
+					value
+			);
+		}
+	}
+
+	/**
+	 * Primitive arrays and lists are walked as classes but bound as repeatable numbers.
+	 *
+	 * @param klass
+	 * @return the value for int[], double[], {@link IntList} or {@link DoubleList}, otherwise null
+	 */
+	private static Value primitiveList(final Class<?> klass) {
+		if (klass == int[].class || klass == IntList.class)
+			return Value.container(Kind.INTEGER_LIST, Value.scalar(Kind.INTEGER));
+		if (klass == double[].class || klass == DoubleList.class)
+			return Value.container(Kind.DOUBLE_LIST, Value.scalar(Kind.DOUBLE));
+		return null;
+	}
+
+	public static CommandModel build(final Reflections reflections, final Class<?> root) {
+		final Map<Class<?>, Concrete> concrete = new LinkedHashMap<>();
+		final Value value = Walk.walk(reflections, new Walk.TypeInfo(root), new Walk.Visitor<Value>() {
+			@Override
+			public Value visitString(final Field field) {
+				return Value.scalar(Kind.STRING);
+			}
+
+			@Override
+			public Value visitInteger(final Field field) {
+				return Value.scalar(Kind.INTEGER);
+			}
+
+			@Override
+			public Value visitDouble(final Field field) {
+				return Value.scalar(Kind.DOUBLE);
+			}
+
+			@Override
+			public Value visitBoolean(final Field field) {
+				return Value.scalar(Kind.BOOLEAN);
+			}
+
+			@Override
+			public Value visitEnum(final Field field, final Class<?> enumClass) {
+				return Value.enumeration(enumClass,
+						Walk
+								.enumValues(enumClass)
+								.stream()
+								.map(pair -> new Pair<String, Object>(Walk.decideName(pair.second), pair.first))
+								.collect(Collectors.toList())
+				);
+			}
+
+			@Override
+			public Value visitList(final Field field, final Value inner) {
+				return Value.container(Kind.LIST, inner);
+			}
+
+			@Override
+			public Value visitSet(final Field field, final Value inner) {
+				return Value.container(Kind.SET, inner);
+			}
+
+			@Override
+			public Value visitMap(final Field field, final Value inner) {
+				return Value.container(Kind.MAP, inner);
+			}
+
+			@Override
+			public Value visitAbstract(
+					final Field field, final Class<?> klass, final List<Pair<Class<?>, Value>> derived
+			) {
+				final Value primitive = primitiveList(klass);
+				if (primitive != null)
+					return primitive;
+				return Value.abstractClass(klass,
+						derived
+								.stream()
+								.map(pair -> new Pair<>(Walk.decideName(pair.first), pair.second))
+								.collect(Collectors.toList())
+				);
+			}
+
+			@Override
+			public Value visitConcreteShort(final Field field, final Class<?> klass) {
+				final Value primitive = primitiveList(klass);
+				if (primitive != null)
+					return primitive;
+				return Value.concreteClass(klass);
+			}
+
+			@Override
+			public void visitConcrete(final Field field, final Class<?> klass, final List<Pair<Field, Value>> fields) {
+				if (primitiveList(klass) != null)
+					return;
+				concrete.put(klass, new Concrete(klass,
+						Walk.decideName(klass),
+						Command
+								.streamPositional(fields)
+								.map(pair -> FieldModel.of(pair.first, pair.second.first, pair.second.second))
+								.collect(Collectors.toList()),
+						Command
+								.streamKeyword(fields)
+								.map(pair -> FieldModel.of(pair.first, pair.second.first, pair.second.second))
+								.collect(Collectors.toList())
+				));
+			}
+		});
+		ModelValidator.validate(concrete.values());
+		return new CommandModel(root, value, concrete);
+	}
+}
@@ -0,0 +1,339 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.pidgoon.InvalidStream;
+import com.zarbosoft.pidgoon.events.Grammar;
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The finished grammar for a root class, as returned by {@link Command#compile}.  Rules for concrete classes are
+ * built when a parse first reaches them, safely for concurrent parses, so a single instance can be shared between
+ * threads and used for any number of parses.
+ *
+ * @param <T> the root class
+ */
+public class CommandParser<T> {
+	final CommandModel model;
+	final Grammar grammar;
+	/**
+	 * Null if the model isn't deterministic.
+	 */
+	final FastParser fast;
+	private volatile HelpModel help;
+	private volatile SortedSet<String> names;
+	private final Map<Class<?>, Map<Method, Field>> views = new ConcurrentHashMap<>();
+	private final boolean expandArgFiles;
+	private volatile CommandParser<T> expanding;
+
+	CommandParser(final CommandModel model, final Grammar grammar, final FastParser fast) {
+		this(model, grammar, fast, false);
+	}
+
+	private CommandParser(
+			final CommandModel model, final Grammar grammar, final FastParser fast, final boolean expandArgFiles
+	) {
+		this.model = model;
+		this.grammar = grammar;
+		this.fast = fast;
+		this.expandArgFiles = expandArgFiles;
+	}
+
+	/**
+	 * Get a parser for the same command that treats arguments starting with @ as paths to argument files, split
+	 * as in {@link CommandStream#push(java.io.Reader)}, and parses the arguments in the files in their place.
+	 * Applies to {@link #parse(String[])}, {@link #tryParse(String[])}, {@link #parseOrError(String[])},
+	 * {@link #parseAll(Stream)} and {@link #stream()}.  Files are memory mapped and, for deterministic models, numbers
+	 * are parsed from the mapped bytes without creating strings.  Argument files aren't expanded recursively.
+	 *
+	 * @return
+	 */
+	public CommandParser<T> expandArgFiles() {
+		if (expandArgFiles)
+			return this;
+		CommandParser<T> expanding = this.expanding;
+		if (expanding == null)
+			this.expanding = expanding = new CommandParser<>(model, grammar, fast, true);
+		return expanding;
+	}
+
+	/**
+	 * If every argument decides how the next is parsed this uses a single pass parser, falling back to the grammar
+	 * only to report errors.
+	 *
+	 * @param args
+	 * @return
+	 */
+	public T parse(final String[] args) {
+		return parse(args, new ParseContext());
+	}
+
+	@SuppressWarnings("unchecked")
+	private T parse(final String[] args, final ParseContext context) {
+		// Argument files are expanded once, for both parsers
+		final ArgEvent[] events = expandArgFiles ? ArgFile.expand(args, context) : null;
+		if (fast != null) {
+			final Object out =
+					events == null ? fast.parse(args, context.listener) : fast.parse(events, context.listener);
+			if (out != null)
+				return (T) out;
+		}
+		final CommandStream<T> stream = new CommandStream<>(grammar, context);
+		if (events == null)
+			for (final String arg : args)
+				stream.push(arg);
+		else
+			for (final ArgEvent event : events)
+				stream.push(event);
+		return stream.finish();
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but root class keyword arguments missing from args are taken from sources.
+	 * Each argument is converted and bound once, from the source with the highest precedence.
+	 *
+	 * @param args
+	 * @param sources
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public T parse(final String[] args, final Sources sources) {
+		final List<Pair<CommandModel.FieldModel, String>> layered = sources.resolve(model);
+		if (fast != null) {
+			final Object out = fast.parse(args, layered);
+			if (out != null)
+				return (T) out;
+		}
+		// Without the single pass parser the root class's rule binds the source values to the fields it didn't match
+		final CommandStream<T> stream = new CommandStream<T>(grammar).layer(layered);
+		for (final String arg : args)
+			stream.push(arg);
+		return stream.finish();
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but reports the parse time and grammar activity to listener.  The single pass
+	 * parser reports each argument with one branch and each class it reads.
+	 *
+	 * @param args
+	 * @param listener
+	 * @return
+	 */
+	public T parse(final String[] args, final ParseListener listener) {
+		final long start = System.nanoTime();
+		try {
+			final ParseContext context = new ParseContext();
+			context.listener = listener;
+			return parse(args, context);
+		} finally {
+			listener.phase(ParseListener.Phase.PARSE, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Parse into an implementation of view, where each method of view returns the root class field with the same
+	 * name and type.  If the model is deterministic, string, number and boolean fields of the root class (and
+	 * collections of them) aren't converted until their method is first called, and conversion errors are thrown
+	 * from that call.  The view isn't thread safe.
+	 *
+	 * @param args
+	 * @param view an interface
+	 * @param <V>
+	 * @return
+	 */
+	public <V> V parseLazy(final String[] args, final Class<V> view) {
+		final Map<Method, Field> fields = views.computeIfAbsent(view, v -> LazyView.fields(v, model.root));
+		final FastParser.Lazy lazy = fast == null ? null : fast.parseLazy(args);
+		final LazyView handler = lazy == null ? new LazyView(fields, parse(args)) : new LazyView(fields, lazy);
+		return view.cast(Proxy.newProxyInstance(view.getClassLoader(), new Class<?>[] {view}, handler));
+	}
+
+	/**
+	 * Start a parse that receives arguments incrementally.
+	 *
+	 * @return
+	 */
+	public CommandStream<T> stream() {
+		final CommandStream<T> stream = new CommandStream<>(grammar);
+		if (expandArgFiles)
+			stream.expandArgFiles();
+		return stream;
+	}
+
+	/**
+	 * Find the names that could be the next argument after prefix: keywords, enum values, subcommands, and true
+	 * and false for booleans.  Arguments that take any string aren't represented.  Keywords that can only be
+	 * specified once and already have been aren't included.
+	 * <p>
+	 * For deterministic models this walks the prefix once without creating any objects.  Otherwise each name the
+	 * command uses is tried after the prefix.
+	 *
+	 * @param prefix
+	 * @return sorted names, empty if prefix doesn't parse
+	 */
+	public List<String> complete(final String[] prefix) {
+		if (fast != null)
+			return fast.complete(prefix);
+		final CommandStream<T> stream = new CommandStream<T>(grammar).keepHistory();
+		try {
+			for (final String arg : prefix)
+				stream.push(arg);
+		} catch (final InvalidStream | AbortParse e) {
+			return Collections.emptyList();
+		}
+		SortedSet<String> names = this.names;
+		if (names == null)
+			this.names = names = model.names();
+		final List<String> out = new ArrayList<>();
+		for (final String name : names) {
+			try {
+				stream.push(name);
+				out.add(name);
+			} catch (final InvalidStream | AbortParse e) {
+			}
+			stream.rewind(prefix.length);
+		}
+		return out;
+	}
+
+	/**
+	 * Start parsing a command line that will be reparsed as it changes.
+	 *
+	 * @return
+	 */
+	public IncrementalParse<T> incremental() {
+		return new IncrementalParse<>(new CommandStream<>(grammar));
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but returns parse errors rather than throwing them.
+	 *
+	 * @param args
+	 * @return
+	 */
+	public ParseResult<T> tryParse(final String[] args) {
+		try {
+			return ParseResult.success(parse(args));
+		} catch (final InvalidStream | AbortParse e) {
+			return ParseResult.failure(e);
+		}
+	}
+
+	/**
+	 * Like {@link #tryParse(String[])} but failures are described by a {@link ParseError}.  For deterministic
+	 * models no exception with a stack trace is created unless a value is invalid; otherwise the grammar's error is
+	 * summarized.  Argument files that can't be read are reported at the argument naming them.
+	 *
+	 * @param args
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public ParseResult<T> parseOrError(final String[] args) {
+		if (expandArgFiles) {
+			final ParseContext context = new ParseContext();
+			final ArgEvent[] events;
+			try {
+				events = ArgFile.expand(args, context);
+			} catch (final ArgFile.Unreadable e) {
+				return ParseResult.failure(new ParseError(this,
+						args,
+						e.index,
+						Collections.emptyList(),
+						String.format("Couldn't read argument file: %s", e.getCause())
+				));
+			}
+			if (events != null)
+				return parseOrError(events, context);
+		}
+		if (fast != null)
+			return (ParseResult<T>) fast.parseOrError(this, args);
+		final CommandStream<T> stream = new CommandStream<>(grammar);
+		try {
+			for (final String arg : args)
+				stream.push(arg);
+			return ParseResult.success(stream.finish());
+		} catch (final InvalidStream | AbortParse e) {
+			return ParseResult.failure(new ParseError(this,
+					args,
+					stream.count(),
+					Collections.emptyList(),
+					e.getMessage()
+			));
+		}
+	}
+
+	/**
+	 * Errors are described by position in the expanded arguments.
+	 *
+	 * @param events expanded argument files
+	 * @param context
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private ParseResult<T> parseOrError(final ArgEvent[] events, final ParseContext context) {
+		if (fast != null)
+			return (ParseResult<T>) fast.parseOrError(this, events);
+		final CommandStream<T> stream = new CommandStream<>(grammar, context);
+		try {
+			for (final ArgEvent event : events)
+				stream.push(event);
+			return ParseResult.success(stream.finish());
+		} catch (final InvalidStream | AbortParse e) {
+			return ParseResult.failure(new ParseError(this,
+					events,
+					stream.count(),
+					Collections.emptyList(),
+					e.getMessage()
+			));
+		}
+	}
+
+	/**
+	 * Parse many argument vectors in parallel on the common fork-join pool.  Failures are returned as
+	 * {@link ParseError}s, as with {@link #parseOrError(String[])}.
+	 *
+	 * @param args
+	 * @return a result for each argument vector, in the same order
+	 */
+	public List<ParseResult<T>> parseAll(final Stream<String[]> args) {
+		return args.parallel().map(this::parseOrError).collect(Collectors.toList());
+	}
+
+	/**
+	 * Parse many argument vectors, one task per vector on the executor.  Failures are returned as
+	 * {@link ParseError}s, as with {@link #parseOrError(String[])}.
+	 *
+	 * @param args
+	 * @param executor
+	 * @return a result for each argument vector, in the same order
+	 */
+	public List<ParseResult<T>> parseAll(final Stream<String[]> args, final Executor executor) {
+		final List<CompletableFuture<ParseResult<T>>> futures = args
+				.map(args1 -> CompletableFuture.supplyAsync(() -> parseOrError(args1), executor))
+				.collect(Collectors.toList());
+		return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the help for this command, formatted on first use
+	 */
+	public HelpModel help() {
+		HelpModel help = this.help;
+		if (help == null)
+			this.help = help = new HelpModel(model);
+		return help;
+	}
+}
@@ -0,0 +1,393 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Keeps compiled parsers resident and answers parse, help and completion requests from {@link CommandClient}s so
+ * repeated command invocations don't each pay for startup, scanning and grammar construction.  Requests are handled
+ * one at a time on the thread calling {@link #run()}.
+ * <p>
+ * The server listens on the loopback interface, which any local user can connect to.  Each server has a random
+ * token, and requests without it are rejected by closing the connection.  Other processes get the token from the
+ * file written by {@link #writeToken(Path)}, which only the owner can read where the file system supports POSIX
+ * permissions.  Elsewhere, place the file in a directory only the owner can read.
+ * <p>
+ * Requests and responses are frames of a 4 byte big-endian length followed by that many bytes.  A request is the
+ * token, a kind byte ({@link #PARSE}, {@link #HELP} or {@link #COMPLETE}), the root class name, the argument count
+ * and the arguments, with strings as written by {@link DataOutputStream#writeUTF(String)}.  For help the only
+ * argument, if any, is the usage prefix, and for completion the arguments are the prefix.  A response is a status byte
+ * ({@link #OK} or {@link #ERROR}) followed by UTF-8 text.  For a successful parse the text is
+ * {@code key=value} lines describing the result for dispatch: keys are argument names joined with dots (list
+ * elements are numbered from 0), the value of an object is its class name, and the root object has an empty key.
+ * Backslashes and newlines in values are escaped with a backslash.
+ */
+public class CommandServer implements Closeable {
+	public static final byte PARSE = 0;
+	public static final byte HELP = 1;
+	public static final byte COMPLETE = 2;
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	/**
+	 * Larger requests close the connection.
+	 */
+	public static final int MAX_FRAME = 1 << 20;
+
+	private final Map<String, CommandParser<?>> parsers = new ConcurrentHashMap<>();
+	private final byte[] token;
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param port 0 to pick a free port
+	 */
+	public CommandServer(final int port) {
+		final byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : random)
+			hex.append(String.format("%02x", b));
+		token = hex.toString().getBytes(StandardCharsets.UTF_8);
+		try {
+			selector = Selector.open();
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Serve the root classes on a port until killed.
+	 *
+	 * @param args the port, the path to write the token file to, then the root class names
+	 */
+	public static void main(final String[] args) {
+		if (args.length < 3)
+			throw new IllegalArgumentException("Usage: CommandServer PORT TOKEN_FILE ROOT [ROOT...]");
+		final CommandServer server = new CommandServer(Integer.parseInt(args[0])).writeToken(Paths.get(args[1]));
+		for (int i = 2; i < args.length; ++i) {
+			final String name = args[i];
+			server.register(uncheck(() -> Class.forName(name)));
+		}
+		server.run();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int port() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the token clients must send with each request
+	 */
+	public String token() {
+		return new String(token, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write the port and token for {@link CommandClient#connect(Path)}, replacing any existing file.  The file is
+	 * created readable and writable only by the owner where the file system supports POSIX permissions.
+	 *
+	 * @param path
+	 * @return this
+	 */
+	public CommandServer writeToken(final Path path) {
+		try {
+			Files.deleteIfExists(path);
+			final Path created;
+			if (path.getFileSystem().supportedFileAttributeViews().contains("posix"))
+				created = Files.createFile(path,
+						PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+				);
+			else
+				created = Files.createFile(path);
+			Files.write(created, String.format("%s\n%s\n", port(), token()).getBytes(StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Compile and serve a root class.  See {@link Command#compile(Class)}.
+	 *
+	 * @param root
+	 * @return this
+	 */
+	public CommandServer register(final Class<?> root) {
+		return register(Command.compile(root));
+	}
+
+	/**
+	 * @param parser served under the name of its root class
+	 * @return this
+	 */
+	public CommandServer register(final CommandParser<?> parser) {
+		parsers.put(parser.model.root.getName(), parser);
+		return this;
+	}
+
+	/**
+	 * Handle requests until {@link #close()} is called.
+	 */
+	public void run() {
+		try {
+			while (!closed) {
+				selector.select();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept();
+						else {
+							if (key.isReadable())
+								read(key);
+							if (key.isValid() && key.isWritable())
+								write(key);
+						}
+					} catch (final IOException e) {
+						key.channel().close();
+					}
+				}
+			}
+			for (final SelectionKey key : selector.keys())
+				key.channel().close();
+			selector.close();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private static class Connection {
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+		private ByteBuffer body = null;
+		private final Deque<ByteBuffer> output = new ArrayDeque<>();
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection());
+	}
+
+	private void read(final SelectionKey key) throws IOException {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		final Connection connection = (Connection) key.attachment();
+		while (true) {
+			final ByteBuffer target = connection.body == null ? connection.header : connection.body;
+			if (channel.read(target) < 0) {
+				channel.close();
+				return;
+			}
+			if (target.hasRemaining())
+				return;
+			if (connection.body == null) {
+				connection.header.flip();
+				final int length = connection.header.getInt();
+				connection.header.clear();
+				if (length < 0 || length > MAX_FRAME) {
+					channel.close();
+					return;
+				}
+				connection.body = ByteBuffer.allocate(length);
+			} else {
+				final byte[] response = handle(connection.body.array());
+				connection.body = null;
+				if (response == null) {
+					channel.close();
+					return;
+				}
+				final ByteBuffer frame = ByteBuffer.allocate(4 + response.length);
+				frame.putInt(response.length).put(response).flip();
+				connection.output.add(frame);
+				write(key);
+				if (!key.isValid())
+					return;
+			}
+		}
+	}
+
+	private void write(final SelectionKey key) throws IOException {
+		final SocketChannel channel = (SocketChannel) key.channel();
+		final Connection connection = (Connection) key.attachment();
+		while (!connection.output.isEmpty()) {
+			final ByteBuffer head = connection.output.peek();
+			channel.write(head);
+			if (head.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.output.remove();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * @param request
+	 * @return the response, or null if the request doesn't have the token
+	 */
+	private byte[] handle(final byte[] request) {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+		try {
+			if (!MessageDigest.isEqual(token, in.readUTF().getBytes(StandardCharsets.UTF_8)))
+				return null;
+		} catch (final IOException e) {
+			return null;
+		}
+		try {
+			final byte kind = in.readByte();
+			final String root = in.readUTF();
+			final int count = in.readInt();
+			if (count < 0 || count > request.length)
+				return response(ERROR, "Invalid request.");
+			final String[] args = new String[count];
+			for (int i = 0; i < args.length; ++i)
+				args[i] = in.readUTF();
+			final CommandParser<?> parser = parsers.get(root);
+			if (parser == null)
+				return response(ERROR, String.format("Root class [%s] is not registered.", root));
+			switch (kind) {
+				case PARSE: {
+					final ParseResult<?> result = parser.parseOrError(args);
+					if (!result.succeeded())
+						return response(ERROR, result.parseError.message());
+					final StringBuilder out = new StringBuilder();
+					describe(out, parser.model, "", parser.model.value, result.value);
+					return response(OK, out.toString());
+				}
+				case HELP: {
+					final StringBuilder out = new StringBuilder();
+					parser.help().render(out, args.length == 0 ? "" : args[0]);
+					return response(OK, out.toString());
+				}
+				case COMPLETE:
+					return response(OK, String.join("\n", parser.complete(args)));
+				default:
+					return response(ERROR, String.format("Unknown request kind %s.", kind));
+			}
+		} catch (final Throwable e) {
+			// Anything thrown by a parse is that request's failure, not the server's
+			return response(ERROR, e.getMessage() == null ? e.toString() : e.getMessage());
+		}
+	}
+
+	private static byte[] response(final byte status, final String text) {
+		final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		final byte[] out = new byte[bytes.length + 1];
+		out[0] = status;
+		System.arraycopy(bytes, 0, out, 1, bytes.length);
+		return out;
+	}
+
+	private static void describe(
+			final StringBuilder out,
+			final CommandModel model,
+			final String key,
+			final CommandModel.Value value,
+			final Object object
+	) {
+		if (object == null)
+			return;
+		switch (value.kind) {
+			case ENUM:
+				for (final Pair<String, Object> pair : value.enumValues)
+					if (pair.second == object)
+						line(out, key, pair.first);
+				break;
+			case LIST:
+			case SET: {
+				int index = 0;
+				for (final Object element : (Collection<?>) object)
+					describe(out, model, String.format("%s.%s", key, index++), value.inner, element);
+				break;
+			}
+			case INTEGER_LIST:
+				if (object instanceof int[]) {
+					final int[] array = (int[]) object;
+					for (int index = 0; index < array.length; ++index)
+						line(out, String.format("%s.%s", key, index), Integer.toString(array[index]));
+				} else {
+					final IntList list = (IntList) object;
+					for (int index = 0; index < list.size(); ++index)
+						line(out, String.format("%s.%s", key, index), Integer.toString(list.get(index)));
+				}
+				break;
+			case DOUBLE_LIST:
+				if (object instanceof double[]) {
+					final double[] array = (double[]) object;
+					for (int index = 0; index < array.length; ++index)
+						line(out, String.format("%s.%s", key, index), Double.toString(array[index]));
+				} else {
+					final DoubleList list = (DoubleList) object;
+					for (int index = 0; index < list.size(); ++index)
+						line(out, String.format("%s.%s", key, index), Double.toString(list.get(index)));
+				}
+				break;
+			case MAP:
+				for (final Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet())
+					describe(out, model, String.format("%s.%s", key, entry.getKey()), value.inner, entry.getValue());
+				break;
+			case ABSTRACT:
+			case CONCRETE: {
+				line(out, key, object.getClass().getName());
+				final CommandModel.Concrete concrete = model.concrete.get(object.getClass());
+				final String prefix = key.isEmpty() ? "" : key + ".";
+				for (final CommandModel.FieldModel field : concrete.positional)
+					describe(out, model, prefix + field.name, field.value, uncheck(() -> field.field.get(object)));
+				for (final CommandModel.FieldModel field : concrete.keyword)
+					describe(out, model, prefix + field.name, field.value, uncheck(() -> field.field.get(object)));
+				break;
+			}
+			default:
+				line(out, key, object.toString());
+		}
+	}
+
+	private static void line(final StringBuilder out, final String key, final String value) {
+		out.append(key).append('=');
+		for (final char c : value.toCharArray()) {
+			if (c == '\\')
+				out.append("\\\\");
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+		out.append('\n');
+	}
+}
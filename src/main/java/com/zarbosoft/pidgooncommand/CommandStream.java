@@ -0,0 +1,243 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.pidgoon.InvalidStream;
+import com.zarbosoft.pidgoon.events.EventStream;
+import com.zarbosoft.pidgoon.events.Grammar;
+import com.zarbosoft.pidgoon.events.Parse;
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Parses arguments as they are pushed rather than from a complete array.  Created by
+ * {@link CommandParser#stream()}.  Not thread safe.
+ *
+ * @param <T> the root class
+ */
+public class CommandStream<T> {
+	private final ParseContext context;
+	private EventStream<T> stream;
+	private int count = 0;
+	private boolean expandArgFiles = false;
+	/**
+	 * The stream before each argument was pushed, and the current stream, if kept.
+	 */
+	private List<EventStream<T>> history = null;
+
+	CommandStream(final Grammar grammar) {
+		this(grammar, new ParseContext());
+	}
+
+	/**
+	 * @param grammar
+	 * @param context for events created before the stream, such as by {@link ArgFile#expand(String[], ParseContext)}
+	 */
+	CommandStream(final Grammar grammar, final ParseContext context) {
+		this.context = context;
+		stream = new Parse<T>().grammar(grammar).parse();
+	}
+
+	private CommandStream(final CommandStream<T> other) {
+		context = other.context;
+		stream = other.stream;
+		count = other.count;
+		expandArgFiles = other.expandArgFiles;
+		history = other.history == null ? null : new ArrayList<>(other.history);
+	}
+
+	/**
+	 * Receive the elements of a list or set field as they're parsed.  Elements passed to the listener aren't
+	 * added to the field in the result.  Must be called before any arguments are pushed.
+	 * <p>
+	 * Elements are reported as soon as the grammar matches them, so if the grammar is ambiguous at that point the
+	 * listener may see an element from an interpretation that is later discarded.
+	 *
+	 * @param field    a collection field of any class in the command
+	 * @param listener
+	 * @param <E>      the element type
+	 * @return this
+	 */
+	@SuppressWarnings("unchecked")
+	public <E> CommandStream<T> onElement(final Field field, final Consumer<E> listener) {
+		if (count > 0)
+			throw new IllegalStateException("Listeners must be added before pushing arguments.");
+		context.addElementListener(field, (Consumer<Object>) listener);
+		return this;
+	}
+
+	/**
+	 * Report grammar activity for each pushed argument to listener.  Must be called before any arguments are
+	 * pushed.
+	 *
+	 * @param listener
+	 * @return this
+	 */
+	public CommandStream<T> listen(final ParseListener listener) {
+		if (count > 0)
+			throw new IllegalStateException("Listeners must be added before pushing arguments.");
+		context.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Bind values from sources to root class keyword arguments that the pushed arguments don't give.  See
+	 * {@link CommandParser#parse(String[], Sources)}.  Must be called before any arguments are pushed.
+	 *
+	 * @param layered from {@link Sources#resolve(CommandModel)}
+	 * @return this
+	 */
+	CommandStream<T> layer(final List<Pair<CommandModel.FieldModel, String>> layered) {
+		if (count > 0)
+			throw new IllegalStateException("Sources must be added before pushing arguments.");
+		context.layered = layered;
+		return this;
+	}
+
+	/**
+	 * Keep the parse state after every argument so the stream can be rewound.  pidgoon streams are persistent so
+	 * this only keeps a reference per argument.  Must be called before any arguments are pushed.
+	 *
+	 * @return this
+	 */
+	public CommandStream<T> keepHistory() {
+		if (count > 0)
+			throw new IllegalStateException("History must be kept from the first argument.");
+		if (history == null) {
+			history = new ArrayList<>();
+			history.add(stream);
+		}
+		return this;
+	}
+
+	/**
+	 * Return to the state after the first count arguments, as if the later arguments were never pushed.  Requires
+	 * {@link #keepHistory()}.
+	 *
+	 * @param count
+	 * @return this
+	 */
+	public CommandStream<T> rewind(final int count) {
+		if (history == null)
+			throw new IllegalStateException("History isn't being kept.");
+		if (count < 0 || count > this.count)
+			throw new IndexOutOfBoundsException(String.format("Can't rewind to %s of %s arguments.", count, this.count));
+		history.subList(count + 1, history.size()).clear();
+		stream = history.get(count);
+		this.count = count;
+		return this;
+	}
+
+	/**
+	 * Like {@link #rewind(int)} but leaves this stream unchanged and returns a new one.  Listeners are shared with
+	 * this stream.
+	 *
+	 * @param count
+	 * @return
+	 */
+	public CommandStream<T> fork(final int count) {
+		return new CommandStream<>(this).rewind(count);
+	}
+
+	/**
+	 * Treat pushed arguments starting with @ as paths to argument files, and push the arguments in the file
+	 * instead.
+	 *
+	 * @return this
+	 */
+	public CommandStream<T> expandArgFiles() {
+		expandArgFiles = true;
+		return this;
+	}
+
+	public CommandStream<T> push(final String arg) {
+		if (expandArgFiles && arg.startsWith("@"))
+			return pushArgFile(Paths.get(arg.substring(1)));
+		return push(new ArgEvent(arg, context));
+	}
+
+	/**
+	 * Push the arguments in a file, split as in {@link #push(Reader)}.  The file is memory mapped and arguments are
+	 * only decoded to strings when a string is required.  Argument files aren't expanded recursively.
+	 *
+	 * @param path
+	 * @return this
+	 */
+	public CommandStream<T> pushArgFile(final Path path) {
+		final ArgFile file = new ArgFile(path);
+		ArgEvent event;
+		while ((event = file.next(context)) != null)
+			push(event);
+		return this;
+	}
+
+	/**
+	 * @param event created with this stream's context
+	 * @return this
+	 */
+	CommandStream<T> push(final ArgEvent event) {
+		if (context.listener == null) {
+			stream = stream.push(event, new ArgPosition(count + 1));
+		} else {
+			context.tested = 0;
+			stream = stream.push(event, new ArgPosition(count + 1));
+			context.listener.argument(count + 1, context.tested);
+		}
+		count += 1;
+		if (history != null)
+			history.add(stream);
+		return this;
+	}
+
+	public CommandStream<T> push(final Iterator<String> args) {
+		while (args.hasNext())
+			push(args.next());
+		return this;
+	}
+
+	/**
+	 * Push arguments separated by whitespace.  Single and double quotes group text containing whitespace and
+	 * backslash escapes the next character.
+	 *
+	 * @param reader
+	 * @return this
+	 */
+	public CommandStream<T> push(final Reader reader) {
+		return push(new ArgReader(reader));
+	}
+
+	/**
+	 * @return the number of arguments pushed so far
+	 */
+	public int count() {
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T finish() {
+		final Object out = stream.finish();
+		if (out instanceof GrammarBuilder.Unfinished)
+			return (T) ((GrammarBuilder.Unfinished) out).finish(context);
+		return (T) out;
+	}
+
+	/**
+	 * Like {@link #finish()} but returns parse errors rather than throwing them.
+	 *
+	 * @return
+	 */
+	public ParseResult<T> tryFinish() {
+		try {
+			return ParseResult.success(finish());
+		} catch (final InvalidStream | AbortParse e) {
+			return ParseResult.failure(e);
+		}
+	}
+}
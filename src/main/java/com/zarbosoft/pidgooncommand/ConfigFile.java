@@ -0,0 +1,96 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory maps a configuration file of {@code key=value} or {@code key: value} lines, so properties files and flat
+ * YAML files can both be read.  Blank lines and lines starting with # or ! are skipped, and a value in matching
+ * quotes is unquoted.  Keys are found when the file is opened, but a value is only decoded when it's requested.
+ */
+class ConfigFile {
+	private final MappedByteBuffer buffer;
+	/**
+	 * Start and end of each value, packed into a long.
+	 */
+	private final Map<String, Long> spans = new HashMap<>();
+
+	ConfigFile(final Path path) {
+		final int limit;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(String.format("Configuration file %s is too large.", path));
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			limit = (int) size;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int position = 0;
+		while (position < limit) {
+			int end = position;
+			while (end < limit && buffer.get(end) != '\n')
+				end += 1;
+			line(position, end);
+			position = end + 1;
+		}
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	private void line(int start, int end) {
+		while (start < end && isWhitespace(buffer.get(start)))
+			start += 1;
+		while (end > start && isWhitespace(buffer.get(end - 1)))
+			end -= 1;
+		if (start == end || buffer.get(start) == '#' || buffer.get(start) == '!')
+			return;
+		int split = start;
+		while (split < end && buffer.get(split) != '=' && buffer.get(split) != ':')
+			split += 1;
+		if (split == end)
+			return;
+		int keyEnd = split;
+		while (keyEnd > start && isWhitespace(buffer.get(keyEnd - 1)))
+			keyEnd -= 1;
+		int valueStart = split + 1;
+		while (valueStart < end && isWhitespace(buffer.get(valueStart)))
+			valueStart += 1;
+		int valueEnd = end;
+		if (valueEnd - valueStart >= 2) {
+			final byte first = buffer.get(valueStart);
+			if ((first == '"' || first == '\'') && buffer.get(valueEnd - 1) == first) {
+				valueStart += 1;
+				valueEnd -= 1;
+			}
+		}
+		spans.put(decode(start, keyEnd), ((long) valueStart << 32) | valueEnd);
+	}
+
+	private String decode(final int start, final int end) {
+		final byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; ++i)
+			bytes[i - start] = buffer.get(i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param key
+	 * @return the value, or null if the key isn't in the file
+	 */
+	public String get(final String key) {
+		final Long span = spans.get(key);
+		if (span == null)
+			return null;
+		return decode((int) (span >>> 32), (int) span.longValue());
+	}
+}
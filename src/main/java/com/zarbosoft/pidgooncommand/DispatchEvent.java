@@ -0,0 +1,31 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.events.MatchingEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Matches any argument that is a key in the lookup with a single hash lookup.
+ */
+class DispatchEvent implements MatchingEvent {
+	public final Map<String, ?> lookup;
+	private final int maxBytes;
+
+	public DispatchEvent(final Map<String, ?> lookup) {
+		this.lookup = lookup;
+		maxBytes = lookup.keySet().stream().mapToInt(key -> key.getBytes(StandardCharsets.UTF_8).length).max().orElse(0);
+	}
+
+	public boolean matches(final MatchingEvent event) {
+		if (!(event instanceof ArgEvent))
+			return false;
+		((ArgEvent) event).tested();
+		return ((ArgEvent) event).matchesKey(lookup, maxBytes);
+	}
+
+	@Override
+	public String toString() {
+		return String.join(" | ", lookup.keySet());
+	}
+}
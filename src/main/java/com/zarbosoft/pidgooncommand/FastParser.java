@@ -0,0 +1,1037 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * A single pass parser for models where the next argument always decides what to do, so no alternatives have to
+ * be kept alive.  Produces the same objects as the pidgoon grammar for every argument vector that parses.  It
+ * gives no error details, so when it fails the caller reparses with the grammar to get them.
+ */
+class FastParser {
+	private final Reader root;
+
+	private FastParser(final Reader root) {
+		this.root = root;
+	}
+
+	/**
+	 * Readers for classes are only filled in when the class is first parsed.
+	 *
+	 * @param model
+	 * @param binders shared with other parsers of the same model
+	 * @return a parser, or null if the model isn't deterministic
+	 */
+	public static FastParser build(final CommandModel model, final Map<Class<?>, Binder> binders) {
+		if (!new Analysis(model).deterministic())
+			return null;
+		return new FastParser(new Builder(model, binders).reader(model.value));
+	}
+
+	/**
+	 * @param args
+	 * @return the parsed value, or null if the arguments don't parse
+	 */
+	public Object parse(final String[] args) {
+		return parse(new Run(args));
+	}
+
+	/**
+	 * Like {@link #parse(String[])} for arguments that are already events, such as those from argument files.
+	 * Numbers are parsed from the events without decoding them to strings.
+	 *
+	 * @param events
+	 * @return the parsed value, or null if the arguments don't parse
+	 */
+	public Object parse(final ArgEvent[] events) {
+		return parse(new Run(events));
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but if the parse succeeds each argument and each class read is reported to
+	 * listener.  There's only ever one branch.  Nothing is reported for a failed parse, since the caller repeats it
+	 * with the grammar.
+	 *
+	 * @param args
+	 * @param listener
+	 * @return
+	 */
+	public Object parse(final String[] args, final ParseListener listener) {
+		return parse(new Run(args), listener);
+	}
+
+	/**
+	 * Like {@link #parse(ArgEvent[])} but reports to listener, as in {@link #parse(String[], ParseListener)}.
+	 *
+	 * @param events
+	 * @param listener
+	 * @return
+	 */
+	public Object parse(final ArgEvent[] events, final ParseListener listener) {
+		return parse(new Run(events), listener);
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but values from sources are bound to root class keyword arguments that aren't
+	 * in args.
+	 *
+	 * @param args
+	 * @param layered from {@link Sources#resolve(CommandModel)}
+	 * @return the parsed value, or null if the arguments or source values don't parse or the root isn't a concrete
+	 * class
+	 */
+	public Object parse(final String[] args, final List<Pair<CommandModel.FieldModel, String>> layered) {
+		final Run run = new Run(args);
+		if (!layered.isEmpty()) {
+			if (!(root instanceof ClassReader))
+				return null;
+			final ClassReader reader = (ClassReader) root;
+			if (!reader.filled)
+				reader.builder.fill(reader);
+			run.layered = new ArrayList<>(layered.size());
+			for (final Pair<CommandModel.FieldModel, String> pair : layered)
+				run.layered.add(new Pair<>(reader.binder.field(pair.first), pair.second));
+		}
+		return parse(run);
+	}
+
+	private Object parse(final Run run) {
+		return parse(run, null);
+	}
+
+	/**
+	 * @param run
+	 * @param listener may be null
+	 * @return
+	 */
+	private Object parse(final Run run, final ParseListener listener) {
+		if (listener != null)
+			run.rules = new ArrayList<>();
+		final Object out;
+		try {
+			out = root.read(run);
+			if (run.position != run.length)
+				return null;
+		} catch (final Mismatch | AbortParse | NumberFormatException e) {
+			return null;
+		}
+		if (listener != null) {
+			for (int i = 1; i <= run.length; ++i)
+				listener.argument(i, 1);
+			for (final Class<?> klass : run.rules)
+				listener.rule(klass);
+		}
+		return out;
+	}
+
+	/**
+	 * Like {@link #parse(String[])} but tracks the fields being read so a failure can be described.
+	 *
+	 * @param parser
+	 * @param args
+	 * @return
+	 */
+	public ParseResult<?> parseOrError(final CommandParser<?> parser, final String[] args) {
+		return parseOrError(parser, new Run(args));
+	}
+
+	/**
+	 * Like {@link #parseOrError(CommandParser, String[])} for arguments that are already events.  Arguments are only
+	 * decoded if they're needed to parse or to describe a failure.
+	 *
+	 * @param parser
+	 * @param events
+	 * @return
+	 */
+	public ParseResult<?> parseOrError(final CommandParser<?> parser, final ArgEvent[] events) {
+		return parseOrError(parser, new Run(events));
+	}
+
+	private ParseResult<?> parseOrError(final CommandParser<?> parser, final Run run) {
+		run.path = new String[8];
+		try {
+			final Object out = root.read(run);
+			if (run.position == run.length)
+				return ParseResult.success(out);
+			return ParseResult.failure(run.error(parser, run.position, Collections.emptyList(), null));
+		} catch (final Mismatch e) {
+			return ParseResult.failure(run.error(parser, run.last, run.path(), null));
+		} catch (final NumberFormatException e) {
+			return ParseResult.failure(run.error(parser, run.last, run.path(), "Not a valid number"));
+		} catch (final AbortParse e) {
+			return ParseResult.failure(run.error(parser, run.position, run.path(), e.getMessage()));
+		}
+	}
+
+	/**
+	 * Find the names that could follow prefix, such as keywords, enum values and subcommands.  Objects aren't
+	 * created.
+	 *
+	 * @param prefix
+	 * @return sorted names, empty if prefix doesn't parse
+	 */
+	public List<String> complete(final String[] prefix) {
+		final Run run = new Run(prefix);
+		run.candidates = new TreeSet<>();
+		try {
+			root.read(run);
+			if (run.position != prefix.length)
+				return Collections.emptyList();
+		} catch (final Complete e) {
+		} catch (final Mismatch | AbortParse | NumberFormatException e) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(run.candidates);
+	}
+
+	/**
+	 * Like {@link #parse(String[])}, but values of string, number and boolean fields of the root class (and
+	 * collections of them) are only recorded, and are converted when first read from the result.
+	 *
+	 * @param args
+	 * @return null if the arguments don't parse or the root isn't a concrete class
+	 */
+	public Lazy parseLazy(final String[] args) {
+		if (!(root instanceof ClassReader))
+			return null;
+		final ClassReader reader = (ClassReader) root;
+		if (!reader.filled)
+			reader.builder.fill(reader);
+		final Run run = new Run(args);
+		try {
+			final Lazy out = new Lazy(reader, args);
+			out.out = reader.read(run, out);
+			if (run.position != args.length)
+				return null;
+			return out;
+		} catch (final Mismatch | AbortParse | NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A root class instance with some fields not yet set.  Not thread safe.
+	 */
+	static class Lazy {
+		private final ClassReader reader;
+		private final String[] args;
+		private Object out;
+		/**
+		 * Argument positions of deferred values by field index, null once the field is set.
+		 */
+		private final int[][] positions;
+		private final int[] counts;
+
+		private Lazy(final ClassReader reader, final String[] args) {
+			this.reader = reader;
+			this.args = args;
+			this.positions = new int[reader.binder.size()][];
+			this.counts = new int[reader.binder.size()];
+		}
+
+		private void defer(final int index, final int position) {
+			int[] positions = this.positions[index];
+			if (positions == null)
+				positions = this.positions[index] = new int[1];
+			else if (counts[index] == positions.length)
+				positions = this.positions[index] = Arrays.copyOf(positions, positions.length * 2);
+			positions[counts[index]++] = position;
+		}
+
+		/**
+		 * @param field a field of the root class
+		 * @return the field's value, converting it first if necessary
+		 */
+		public Object get(final Field field) {
+			final Binder.FieldBinder binder = reader.fields.get(field);
+			if (binder == null)
+				throw new AssertionError(String.format("%s is not an argument of %s.", field, reader.concrete.klass));
+			final int[] positions = this.positions[binder.index];
+			if (positions != null) {
+				this.positions[binder.index] = null;
+				for (int i = 0; i < counts[binder.index]; ++i) {
+					final Run run = new Run(args);
+					run.position = positions[i];
+					try {
+						binder.bind(out, reader.values[binder.index].read(run), i);
+					} catch (final NumberFormatException e) {
+						throw new AbortParse(String.format("Invalid value %s for %s.", args[positions[i]], binder.name));
+					}
+				}
+				binder.finish(out, counts[binder.index]);
+			}
+			return uncheck(() -> field.get(out));
+		}
+	}
+
+	/**
+	 * Thrown to stop a failed parse.  Carries no information so a single instance is reused.
+	 */
+	private static class Mismatch extends RuntimeException {
+		private static final Mismatch INSTANCE = new Mismatch();
+
+		private Mismatch() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Thrown when completion reaches the end of the prefix at a point where another argument is required.
+	 */
+	private static class Complete extends RuntimeException {
+		private static final Complete INSTANCE = new Complete();
+
+		private Complete() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final String[] NO_NAMES = new String[0];
+	private static final String[] BOOLEAN_NAMES = new String[] {"false", "true"};
+
+	private static class Run {
+		private final String[] args;
+		/**
+		 * Null unless parsing events, in which case args is null.
+		 */
+		private final ArgEvent[] events;
+		private final int length;
+		private int position = 0;
+		/**
+		 * The position of the last argument read, or the number of arguments if they ran out.
+		 */
+		private int last = -1;
+		/**
+		 * Null unless completing.
+		 */
+		private Set<String> candidates = null;
+		/**
+		 * Null unless describing failures, otherwise the names of the fields being read, outermost first.
+		 */
+		private String[] path = null;
+		private int depth = 0;
+		/**
+		 * Null unless the parse is being measured, otherwise the classes read in the order they were finished.
+		 */
+		private List<Class<?>> rules = null;
+		/**
+		 * Null unless there are values from sources, which are taken by the first (root) class read.
+		 */
+		private List<Pair<Binder.FieldBinder, String>> layered = null;
+
+		private Run(final String[] args) {
+			this.args = args;
+			this.events = null;
+			this.length = args.length;
+		}
+
+		private Run(final ArgEvent[] events) {
+			this.args = null;
+			this.events = events;
+			this.length = events.length;
+		}
+
+		private String at(final int position) {
+			return events == null ? args[position] : events[position].value();
+		}
+
+		public String peek() {
+			return position < length ? at(position) : null;
+		}
+
+		public String next() {
+			return next(NO_NAMES);
+		}
+
+		/**
+		 * @param names when completing, the names that could be next
+		 * @return
+		 */
+		public String next(final String[] names) {
+			last = position;
+			if (position >= length) {
+				if (candidates == null)
+					throw Mismatch.INSTANCE;
+				Collections.addAll(candidates, names);
+				throw Complete.INSTANCE;
+			}
+			return at(position++);
+		}
+
+		/**
+		 * Like {@link #next()} but returns the argument as an event, so numbers in events from argument files can
+		 * be parsed without decoding them.
+		 *
+		 * @return
+		 */
+		public ArgEvent nextEvent() {
+			if (events == null || position >= length)
+				return new ArgEvent(next());
+			last = position;
+			return events[position++];
+		}
+
+		/**
+		 * Like {@link #nextEvent()} but string arguments are returned as is.
+		 *
+		 * @return the argument or its event
+		 */
+		public Object nextToken() {
+			if (events == null || position >= length)
+				return next();
+			last = position;
+			return events[position++];
+		}
+
+		public void enter(final String name) {
+			if (depth == path.length)
+				path = Arrays.copyOf(path, depth * 2);
+			path[depth++] = name;
+		}
+
+		public List<String> path() {
+			return Arrays.asList(Arrays.copyOf(path, depth));
+		}
+
+		public ParseError error(
+				final CommandParser<?> parser, final int index, final List<String> path, final String reason
+		) {
+			if (events == null)
+				return new ParseError(parser, args, index, path, reason);
+			return new ParseError(parser, events, index, path, reason);
+		}
+	}
+
+	private interface Reader {
+		Object read(Run run);
+	}
+
+	private static class Keyword {
+		final Binder.FieldBinder binder;
+		/**
+		 * Null for boolean flags.
+		 */
+		final Reader value;
+
+		private Keyword(final Binder.FieldBinder binder, final Reader value) {
+			this.binder = binder;
+			this.value = value;
+		}
+
+		public Object read(final Run run) {
+			return value == null ? Boolean.TRUE : value.read(run);
+		}
+	}
+
+	/**
+	 * Reads an instance of a concrete class the same way the class's rule in {@link GrammarBuilder} does.
+	 */
+	private static class ClassReader implements Reader {
+		private final Builder builder;
+		private final CommandModel.Concrete concrete;
+		private volatile boolean filled = false;
+		private Binder binder;
+		private Binder.FieldBinder[] positional;
+		private Reader[] positionalValues;
+		private final Map<String, Keyword> keywords = new HashMap<>();
+		private final Map<String, Keyword> earlyExit = new HashMap<>();
+		/**
+		 * By field index, the value reader and whether reading can be deferred in a lazy parse.
+		 */
+		private Reader[] values;
+		private boolean[] deferrable;
+		private final Map<Field, Binder.FieldBinder> fields = new HashMap<>();
+
+		private ClassReader(final Builder builder, final CommandModel.Concrete concrete) {
+			this.builder = builder;
+			this.concrete = concrete;
+		}
+
+		@Override
+		public Object read(final Run run) {
+			return read(run, null);
+		}
+
+		/**
+		 * @param run
+		 * @param lazy if not null, record the positions of deferrable values here instead of reading them
+		 * @return
+		 */
+		private Object read(final Run run, final Lazy lazy) {
+			if (!filled)
+				builder.fill(this);
+			final boolean completing = run.candidates != null;
+			final boolean tracking = run.path != null;
+			final List<Pair<Binder.FieldBinder, String>> layered = run.layered;
+			run.layered = null;
+			final Object out = completing ? null : binder.create();
+			if (!earlyExit.isEmpty()) {
+				final String first = run.peek();
+				if (first == null && completing)
+					run.candidates.addAll(earlyExit.keySet());
+				final Keyword keyword = first == null ? null : earlyExit.get(first);
+				if (keyword != null) {
+					run.position += 1;
+					final Object value = keyword.read(run);
+					if (!completing) {
+						keyword.binder.bind(out, value, 0);
+						keyword.binder.finish(out, 1);
+						if (run.rules != null)
+							run.rules.add(concrete.klass);
+					}
+					return out;
+				}
+			}
+			final int[] counts = new int[binder.size()];
+			for (int i = 0; i < positional.length; ++i) {
+				final Binder.FieldBinder field = positional[i];
+				counts[field.index] += 1;
+				if (lazy != null && deferrable[field.index]) {
+					lazy.defer(field.index, run.position);
+					run.next();
+				} else {
+					if (tracking)
+						run.enter(field.name);
+					final Object value = positionalValues[i].read(run);
+					if (tracking)
+						run.depth -= 1;
+					if (!completing)
+						field.bind(out, value, counts[field.index] - 1);
+				}
+			}
+			String next;
+			while ((next = run.peek()) != null) {
+				final Keyword keyword = keywords.get(next);
+				if (keyword == null)
+					break;
+				final int at = run.position;
+				run.position += 1;
+				final boolean defer = lazy != null && deferrable[keyword.binder.index];
+				final Object value;
+				if (defer) {
+					lazy.defer(keyword.binder.index, run.position);
+					value = run.next();
+				} else {
+					if (tracking)
+						run.enter(keyword.binder.name);
+					value = keyword.read(run);
+					if (tracking)
+						run.depth -= 1;
+				}
+				if (counts[keyword.binder.index]++ > 0 && !keyword.binder.repeatable) {
+					run.last = at;
+					throw Mismatch.INSTANCE;
+				}
+				if (!defer && !completing)
+					keyword.binder.bind(out, value, counts[keyword.binder.index] - 1);
+			}
+			if (completing) {
+				// The prefix may end here, so anything that can follow this class is also a candidate
+				if (next == null)
+					keywords.forEach((name, keyword) -> {
+						if (keyword.binder.repeatable || counts[keyword.binder.index] == 0)
+							run.candidates.add(name);
+					});
+				return null;
+			}
+			if (layered != null)
+				for (final Pair<Binder.FieldBinder, String> pair : layered) {
+					final Binder.FieldBinder field = pair.first;
+					if (counts[field.index] > 0)
+						continue;
+					counts[field.index] = 1;
+					final Reader value = values[field.index];
+					field.bind(out,
+							value == null ? Boolean.valueOf(pair.second) : value.read(new Run(new String[] {pair.second})),
+							0
+					);
+				}
+			binder.finish(out, counts);
+			binder.checkRequired(counts);
+			if (run.rules != null)
+				run.rules.add(concrete.klass);
+			return out;
+		}
+	}
+
+	private static class Builder {
+		private final CommandModel model;
+		private final Map<Class<?>, Binder> binders;
+		private final Map<Class<?>, Reader> classReaders = new HashMap<>();
+
+		private Builder(final CommandModel model, final Map<Class<?>, Binder> binders) {
+			this.model = model;
+			this.binders = binders;
+		}
+
+		public Reader reader(final CommandModel.Value value) {
+			switch (value.kind) {
+				case STRING:
+					return Run::next;
+				case INTEGER:
+					return run -> {
+						final ArgEvent event = run.nextEvent();
+						event.intValue();
+						return event;
+					};
+				case DOUBLE:
+					return run -> {
+						final ArgEvent event = run.nextEvent();
+						event.doubleValue();
+						return event;
+					};
+				case BOOLEAN:
+					return run -> Boolean.parseBoolean(run.next(BOOLEAN_NAMES));
+				case ENUM: {
+					final Map<String, Object> values = new HashMap<>();
+					value.enumValues.forEach(pair -> values.put(pair.first, pair.second));
+					final String[] names = values.keySet().toArray(new String[0]);
+					return run -> {
+						final Object out = values.get(run.next(names));
+						if (out == null)
+							throw Mismatch.INSTANCE;
+						return out;
+					};
+				}
+				case LIST:
+				case SET:
+					return reader(value.inner);
+				case INTEGER_LIST:
+					// Checked here but bound from the argument itself, so nothing is allocated per value
+					return run -> {
+						final Object token = run.nextToken();
+						if (token instanceof ArgEvent)
+							((ArgEvent) token).intValue();
+						else
+							Integer.parseInt((String) token);
+						return token;
+					};
+				case DOUBLE_LIST:
+					return run -> {
+						final Object token = run.nextToken();
+						if (token instanceof ArgEvent)
+							((ArgEvent) token).doubleValue();
+						else
+							Double.parseDouble((String) token);
+						return token;
+					};
+				case MAP: {
+					final Reader inner = reader(value.inner);
+					return run -> {
+						final String key = run.next();
+						return new Pair<>(key, inner.read(run));
+					};
+				}
+				case ABSTRACT: {
+					final Map<String, Reader> derived = new HashMap<>();
+					value.derived.forEach(pair -> derived.put(pair.first, reader(pair.second)));
+					final String[] names = derived.keySet().toArray(new String[0]);
+					return run -> {
+						final Reader reader = derived.get(run.next(names));
+						if (reader == null)
+							throw Mismatch.INSTANCE;
+						return reader.read(run);
+					};
+				}
+				case CONCRETE: {
+					final Reader existing = classReaders.get(value.klass);
+					if (existing != null)
+						return existing;
+					final ClassReader reader = new ClassReader(this, model.concrete.get(value.klass));
+					classReaders.put(value.klass, reader);
+					return reader;
+				}
+				default:
+					throw new AssertionError();
+			}
+		}
+
+		/**
+		 * @param value
+		 * @return true if values always take a single argument and parsing them can't fail in a way that changes
+		 * how later arguments are read
+		 */
+		private static boolean deferrable(final CommandModel.Value value) {
+			switch (value.kind) {
+				case STRING:
+				case INTEGER:
+				case DOUBLE:
+				case BOOLEAN:
+					return true;
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+					return deferrable(value.inner);
+				default:
+					return false;
+			}
+		}
+
+		/**
+		 * Parses on different threads may reach a class for the first time together, and filling a reader creates
+		 * readers for the classes it refers to, so this is serialized on the builder.
+		 *
+		 * @param reader
+		 */
+		private synchronized void fill(final ClassReader reader) {
+			if (reader.filled)
+				return;
+			final CommandModel.Concrete concrete = reader.concrete;
+			// The grammar builds its rules on demand, so either may create the shared binder first
+			reader.binder = binders.computeIfAbsent(concrete.klass, k -> new Binder(concrete));
+			reader.positional = new Binder.FieldBinder[concrete.positional.size()];
+			reader.positionalValues = new Reader[concrete.positional.size()];
+			reader.values = new Reader[reader.binder.size()];
+			reader.deferrable = new boolean[reader.binder.size()];
+			for (int i = 0; i < concrete.positional.size(); ++i) {
+				final CommandModel.FieldModel field = concrete.positional.get(i);
+				final Binder.FieldBinder binder = reader.binder.field(field);
+				reader.positional[i] = binder;
+				reader.positionalValues[i] = reader(field.value);
+				reader.values[binder.index] = reader.positionalValues[i];
+				reader.deferrable[binder.index] = deferrable(field.value);
+				reader.fields.put(field.field, binder);
+			}
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				final Binder.FieldBinder binder = reader.binder.field(field);
+				final Keyword keyword = new Keyword(binder, field.isFlag() ? null : reader(field.value));
+				reader.values[binder.index] = keyword.value;
+				reader.deferrable[binder.index] = !field.isFlag() && deferrable(field.value);
+				reader.fields.put(field.field, binder);
+				final Map<String, Keyword> lookup = field.earlyExit ? reader.earlyExit : reader.keywords;
+				if (!field.shortName.isEmpty())
+					lookup.put(field.shortName, keyword);
+				lookup.put(field.name, keyword);
+			}
+			reader.filled = true;
+		}
+	}
+
+	/**
+	 * A set of arguments, for comparing what different parts of the grammar accept.
+	 */
+	private static class Tokens {
+		boolean any = false;
+		boolean integers = false;
+		boolean doubles = false;
+		final Set<String> names = new HashSet<>();
+
+		public boolean isEmpty() {
+			return !any && !integers && !doubles && names.isEmpty();
+		}
+
+		public boolean contains(final String name) {
+			if (any || names.contains(name))
+				return true;
+			if (integers && isInteger(name))
+				return true;
+			return doubles && isDouble(name);
+		}
+
+		public boolean intersects(final Tokens other) {
+			if (isEmpty() || other.isEmpty())
+				return false;
+			if (any || other.any)
+				return true;
+			if ((integers || doubles) && (other.integers || other.doubles))
+				return true;
+			for (final String name : names)
+				if (other.contains(name))
+					return true;
+			for (final String name : other.names)
+				if (contains(name))
+					return true;
+			return false;
+		}
+
+		/**
+		 * @param other
+		 * @return true if this set grew
+		 */
+		public boolean addAll(final Tokens other) {
+			boolean changed = false;
+			if (other.any && !any)
+				changed = any = true;
+			if (other.integers && !integers)
+				changed = integers = true;
+			if (other.doubles && !doubles)
+				changed = doubles = true;
+			return names.addAll(other.names) || changed;
+		}
+
+		private static boolean isInteger(final String name) {
+			try {
+				Integer.parseInt(name);
+				return true;
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		}
+
+		private static boolean isDouble(final String name) {
+			try {
+				Double.parseDouble(name);
+				return true;
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Checks that the model is LL(1): at every point where the grammar could go more than one way, the sets of
+	 * arguments that start each way are disjoint.
+	 */
+	private static class Analysis {
+		private final CommandModel model;
+		private final Map<Class<?>, Tokens> first = new HashMap<>();
+		private final Map<Class<?>, Tokens> follow = new HashMap<>();
+		private final Set<Class<?>> visiting = new HashSet<>();
+		private boolean changed;
+
+		private Analysis(final CommandModel model) {
+			this.model = model;
+		}
+
+		public boolean deterministic() {
+			if (!supported(model.value, new HashSet<>()))
+				return false;
+			try {
+				do {
+					changed = false;
+					propagate(model.value, new Tokens());
+					for (final CommandModel.Concrete concrete : model.concrete.values())
+						propagate(concrete);
+				} while (changed);
+				for (final CommandModel.Concrete concrete : model.concrete.values())
+					if (!deterministic(concrete))
+						return false;
+				return true;
+			} catch (final Mismatch e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Subclasses with the same name are ambiguous.
+		 *
+		 * @param value
+		 * @param seen
+		 * @return
+		 */
+		private boolean supported(final CommandModel.Value value, final Set<Class<?>> seen) {
+			switch (value.kind) {
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+				case MAP:
+					return supported(value.inner, seen);
+				case ABSTRACT: {
+					final Set<String> names = new HashSet<>();
+					for (final Pair<String, CommandModel.Value> pair : value.derived)
+						if (!names.add(pair.first) || !supported(pair.second, seen))
+							return false;
+					return true;
+				}
+				case CONCRETE: {
+					if (!seen.add(value.klass))
+						return true;
+					final CommandModel.Concrete concrete = model.concrete.get(value.klass);
+					for (final CommandModel.FieldModel field : concrete.positional)
+						if (!supported(field.value, seen))
+							return false;
+					for (final CommandModel.FieldModel field : concrete.keyword)
+						if (!supported(field.value, seen))
+							return false;
+					return true;
+				}
+				default:
+					return true;
+			}
+		}
+
+		private boolean deterministic(final CommandModel.Concrete concrete) {
+			final Tokens keywords = new Tokens();
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				if (field.earlyExit)
+					continue;
+				if (!field.shortName.isEmpty() && !keywords.names.add(field.shortName))
+					return false;
+				if (!keywords.names.add(field.name))
+					return false;
+			}
+			if (keywords.intersects(follow(concrete.klass)))
+				return false;
+			final Tokens main = new Tokens();
+			if (firstPositional(concrete, 0, main))
+				main.addAll(keywords);
+			if (nullable(concrete))
+				main.addAll(follow(concrete.klass));
+			final Tokens earlyExit = new Tokens();
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				if (!field.earlyExit)
+					continue;
+				if (!field.shortName.isEmpty() && !earlyExit.names.add(field.shortName))
+					return false;
+				if (!earlyExit.names.add(field.name))
+					return false;
+			}
+			return !earlyExit.intersects(main);
+		}
+
+		private Tokens follow(final Class<?> klass) {
+			return follow.computeIfAbsent(klass, k -> new Tokens());
+		}
+
+		private void propagate(final CommandModel.Concrete concrete) {
+			final Tokens keywords = keywordNames(concrete);
+			for (int i = 0; i < concrete.positional.size(); ++i) {
+				final Tokens after = new Tokens();
+				if (firstPositional(concrete, i + 1, after)) {
+					after.addAll(keywords);
+					after.addAll(follow(concrete.klass));
+				}
+				propagate(concrete.positional.get(i).value, after);
+			}
+			final Tokens afterKeyword = new Tokens();
+			afterKeyword.addAll(keywords);
+			afterKeyword.addAll(follow(concrete.klass));
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				if (field.isFlag())
+					continue;
+				propagate(field.value, field.earlyExit ? follow(concrete.klass) : afterKeyword);
+			}
+		}
+
+		private void propagate(final CommandModel.Value value, final Tokens after) {
+			switch (value.kind) {
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+				case MAP:
+					propagate(value.inner, after);
+					break;
+				case ABSTRACT:
+					for (final Pair<String, CommandModel.Value> pair : value.derived)
+						propagate(pair.second, after);
+					break;
+				case CONCRETE:
+					if (follow(value.klass).addAll(after))
+						changed = true;
+					break;
+				default:
+			}
+		}
+
+		private static Tokens keywordNames(final CommandModel.Concrete concrete) {
+			final Tokens out = new Tokens();
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				if (field.earlyExit)
+					continue;
+				if (!field.shortName.isEmpty())
+					out.names.add(field.shortName);
+				out.names.add(field.name);
+			}
+			return out;
+		}
+
+		/**
+		 * Add the arguments that can start the positional fields from start onward to out.
+		 *
+		 * @param concrete
+		 * @param start
+		 * @param out
+		 * @return true if those fields can all be empty
+		 */
+		private boolean firstPositional(final CommandModel.Concrete concrete, final int start, final Tokens out) {
+			for (int i = start; i < concrete.positional.size(); ++i) {
+				final CommandModel.Value value = concrete.positional.get(i).value;
+				out.addAll(first(value));
+				if (!nullable(value))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean nullable(final CommandModel.Concrete concrete) {
+			return concrete.positional.stream().allMatch(field -> nullable(field.value));
+		}
+
+		private boolean nullable(final CommandModel.Value value) {
+			switch (value.kind) {
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+					return nullable(value.inner);
+				case CONCRETE:
+					return nullable(model.concrete.get(value.klass));
+				default:
+					return false;
+			}
+		}
+
+		private Tokens first(final CommandModel.Value value) {
+			final Tokens out = new Tokens();
+			switch (value.kind) {
+				case STRING:
+				case BOOLEAN:
+				case MAP:
+					out.any = true;
+					break;
+				case INTEGER:
+					out.integers = true;
+					break;
+				case DOUBLE:
+					out.doubles = true;
+					break;
+				case ENUM:
+					value.enumValues.forEach(pair -> out.names.add(pair.first));
+					break;
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+					return first(value.inner);
+				case ABSTRACT:
+					value.derived.forEach(pair -> out.names.add(pair.first));
+					break;
+				case CONCRETE:
+					return first(model.concrete.get(value.klass));
+				default:
+					throw new AssertionError();
+			}
+			return out;
+		}
+
+		private Tokens first(final CommandModel.Concrete concrete) {
+			final Tokens existing = first.get(concrete.klass);
+			if (existing != null)
+				return existing;
+			// A class whose first argument can be itself
+			if (!visiting.add(concrete.klass))
+				throw Mismatch.INSTANCE;
+			final Tokens out = new Tokens();
+			if (firstPositional(concrete, 0, out))
+				out.addAll(keywordNames(concrete));
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				if (!field.earlyExit)
+					continue;
+				if (!field.shortName.isEmpty())
+					out.names.add(field.shortName);
+				out.names.add(field.name);
+			}
+			visiting.remove(concrete.klass);
+			first.put(concrete.klass, out);
+			return out;
+		}
+	}
+}
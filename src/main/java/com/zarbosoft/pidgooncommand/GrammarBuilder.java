@@ -0,0 +1,417 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.pidgoon.Node;
+import com.zarbosoft.pidgoon.events.*;
+import com.zarbosoft.pidgoon.internal.Helper;
+import com.zarbosoft.pidgoon.nodes.Reference;
+import com.zarbosoft.pidgoon.nodes.Repeat;
+import com.zarbosoft.pidgoon.nodes.Sequence;
+import com.zarbosoft.pidgoon.nodes.Union;
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the pidgoon grammar for a {@link CommandModel}.
+ */
+class GrammarBuilder {
+	private final CommandModel model;
+
+	/*
+	 * Value nodes are shared so keywords with the same value grammar can be dispatched together.
+	 */
+	private final Object flag = new Object();
+	private final Map<CommandModel.Kind, Node> scalarNodes = new EnumMap<>(CommandModel.Kind.class);
+	private final Map<Class<?>, Node> classNodes = new HashMap<>();
+	private final Map<Class<?>, Binder> binders;
+
+	/**
+	 * @param model
+	 * @param binders shared with other parsers of the same model, filled as classes are reached, so must be safe
+	 *                for concurrent use
+	 */
+	GrammarBuilder(final CommandModel model, final Map<Class<?>, Binder> binders) {
+		this.model = model;
+		this.binders = binders;
+	}
+
+	/**
+	 * Only the root node is built here; see {@link LazyGrammar}.
+	 *
+	 * @return
+	 */
+	public Grammar build() {
+		final Grammar grammar = new LazyGrammar(this);
+		grammar.add("root", node(model.value));
+		return grammar;
+	}
+
+	/**
+	 * Builds the rule for a concrete class the first time a {@link Reference} to it is resolved, which happens when
+	 * a parse reaches it, such as after a subcommand's name is matched.  Commands with many subcommands only build
+	 * the rules for those that are used.  Rules for different classes can be built at the same time.
+	 */
+	static class LazyGrammar extends Grammar {
+		private final GrammarBuilder builder;
+		private final Map<Class<?>, Rule> rules = new ConcurrentHashMap<>();
+
+		private LazyGrammar(final GrammarBuilder builder) {
+			this.builder = builder;
+		}
+
+		/**
+		 * A class's rule, built once while holding this.
+		 */
+		private static class Rule {
+			private final CommandModel.Concrete concrete;
+			private volatile Node node;
+
+			private Rule(final CommandModel.Concrete concrete) {
+				this.concrete = concrete;
+			}
+
+			private Node get(final GrammarBuilder builder) {
+				Node node = this.node;
+				if (node != null)
+					return node;
+				synchronized (this) {
+					node = this.node;
+					if (node == null)
+						this.node = node = builder.rule(concrete);
+					return node;
+				}
+			}
+		}
+
+		@Override
+		public Node getNode(final Object key) {
+			if (!(key instanceof Class))
+				return super.getNode(key);
+			Rule rule = rules.get(key);
+			if (rule == null) {
+				final CommandModel.Concrete concrete = builder.model.concrete.get(key);
+				if (concrete == null)
+					return super.getNode(key);
+				rule = rules.computeIfAbsent((Class<?>) key, k -> new Rule(concrete));
+			}
+			return rule.get(builder);
+		}
+
+		/**
+		 * @param klass
+		 * @return true if the rule for klass has been built
+		 */
+		boolean built(final Class<?> klass) {
+			final Rule rule = rules.get(klass);
+			return rule != null && rule.node != null;
+		}
+	}
+
+	/**
+	 * Value nodes are shared between rules, which may be built on different threads, so they're created holding
+	 * the builder's lock.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private synchronized Node node(final CommandModel.Value value) {
+		switch (value.kind) {
+			case STRING:
+			case INTEGER:
+			case DOUBLE:
+			case BOOLEAN:
+				return scalarNodes.computeIfAbsent(value.kind, GrammarBuilder::scalarNode);
+			case ENUM:
+				return classNodes.computeIfAbsent(value.klass, k -> {
+					final Map<String, Object> values = new HashMap<>();
+					value.enumValues.forEach(pair -> values.put(pair.first, pair.second));
+					return new Operator(new MatchingEventTerminal(new DispatchEvent(values)), store -> {
+						return store.pushStack(values.get(((ArgEvent) store.top()).value()));
+					});
+				});
+			case LIST:
+			case SET:
+			case INTEGER_LIST:
+			case DOUBLE_LIST:
+				return node(value.inner);
+			case MAP:
+				// The key is pushed alone then replaced along with the value by a single pair
+				return new Sequence()
+						.add(new Operator(new MatchingEventTerminal(new ArgEvent()), store -> {
+							return store.pushStack(((ArgEvent) store.top()).value());
+						}))
+						.add(new Operator(node(value.inner), store -> {
+							final Object entryValue = store.stackTop();
+							store = (Store) store.popStack();
+							final String key = store.stackTop();
+							store = (Store) store.popStack();
+							return store.pushStack(new Pair<>(key, entryValue));
+						}));
+			case ABSTRACT: {
+				final Node existing = classNodes.get(value.klass);
+				if (existing != null)
+					return existing;
+				final Union union = new Union();
+				classNodes.put(value.klass, union);
+				value.derived.forEach(pair -> union.add(new Sequence()
+						.add(new MatchingEventTerminal(new ArgEvent(pair.first)))
+						.add(node(pair.second))));
+				return union;
+			}
+			case CONCRETE:
+				return classNodes.computeIfAbsent(value.klass, k -> new Reference(value.klass));
+			default:
+				throw new AssertionError();
+		}
+	}
+
+	private static Node scalarNode(final CommandModel.Kind kind) {
+		switch (kind) {
+			case STRING:
+				return new Operator(new MatchingEventTerminal(new ArgEvent()), store -> {
+					return store.pushStack(((ArgEvent) store.top()).value());
+				});
+			case INTEGER:
+				return new Operator(new MatchingEventTerminal(new ArgEvent()), store -> {
+					final ArgEvent event = (ArgEvent) store.top();
+					try {
+						event.intValue();
+						return store.pushStack(event);
+					} catch (final NumberFormatException e) {
+						throw new AbortParse(String.format("%s is not an integer.", event.value()));
+					}
+				});
+			case DOUBLE:
+				return new Operator(new MatchingEventTerminal(new ArgEvent()), store -> {
+					final ArgEvent event = (ArgEvent) store.top();
+					try {
+						event.doubleValue();
+						return store.pushStack(event);
+					} catch (final NumberFormatException e) {
+						throw new AbortParse(String.format("%s is not a double.", event.value()));
+					}
+				});
+			case BOOLEAN:
+				return new Operator(new MatchingEventTerminal(new ArgEvent()), store -> {
+					final ArgEvent event = (ArgEvent) store.top();
+					try {
+						return store.pushStack(Boolean.parseBoolean(event.value()));
+					} catch (final NumberFormatException e) {
+						throw new AbortParse(String.format("%s is not a boolean.", event.value()));
+					}
+				});
+			default:
+				throw new AssertionError();
+		}
+	}
+
+	private Node rule(final CommandModel.Concrete concrete) {
+		final Binder binder = binders.computeIfAbsent(concrete.klass, k -> new Binder(concrete));
+		final Union root = new Union();
+		final Sequence positional = new Sequence();
+		concrete.positional.forEach(field -> {
+			final Binder.FieldBinder fieldBinder = binder.field(field);
+			positional
+					.add(new Operator(store -> store.pushStack(fieldBinder)))
+					.add(new Operator(node(field.value), GrammarBuilder::bindValue));
+		});
+
+		// Keywords with the same value node share one terminal that looks up the binder by name
+		final Map<Object, Map<String, Binder.FieldBinder>> groups = new LinkedHashMap<>();
+		final Union keyword = new Union();
+		concrete.keyword.forEach(field -> {
+			final Binder.FieldBinder fieldBinder = binder.field(field);
+			final List<String> names = new ArrayList<>();
+			if (!field.shortName.isEmpty())
+				names.add(field.shortName);
+			names.add(field.name);
+			if (field.earlyExit) {
+				final Map<String, Binder.FieldBinder> lookup = new HashMap<>();
+				names.forEach(name -> lookup.put(name, fieldBinder));
+				root.add(keywordNode(lookup, field.isFlag() ? null : node(field.value)));
+				return;
+			}
+			final Map<String, Binder.FieldBinder> group =
+					groups.computeIfAbsent(field.isFlag() ? flag : node(field.value), k -> new HashMap<>());
+			// Names are unique within the class, checked by ModelValidator
+			names.forEach(name -> group.put(name, fieldBinder));
+		});
+		groups.forEach((node, lookup) -> keyword.add(keywordNode(lookup, node == flag ? null : (Node) node)));
+		if (!groups.isEmpty())
+			positional.add(new Repeat(keyword));
+		root.add(positional);
+		return new Sequence().add(new Operator(store -> store.pushStack(0))).add(new Operator(root, store -> {
+			final Object out = binder.create();
+			// The element count is on top of the stack
+			final List<Pair<Binder.FieldBinder, Object>> values = new ArrayList<>((Integer) store.stackTop());
+			store = (Store) Helper.<Pair<Binder.FieldBinder, Object>>stackPopSingleList(store, values::add);
+			final int[] counts = new int[binder.size()];
+			// Values taken by element listeners count as given but aren't bound
+			final int[] reserved = new int[counts.length];
+			for (final Pair<Binder.FieldBinder, Object> pair : values) {
+				if (counts[pair.first.index]++ > 0 && !pair.first.repeatable)
+					throw new AbortParse(String.format("%s specified more than once.", pair.first.name));
+				if (pair.second != Binder.CONSUMED)
+					reserved[pair.first.index] += 1;
+			}
+			binder.reserve(out, reserved);
+			// Values are popped newest first
+			final int[] bound = new int[counts.length];
+			for (int i = values.size() - 1; i >= 0; --i) {
+				final Pair<Binder.FieldBinder, Object> pair = values.get(i);
+				if (pair.second == Binder.CONSUMED)
+					continue;
+				pair.first.bindReserved(out, pair.second, bound[pair.first.index]++);
+			}
+			binder.finish(out, bound);
+			final ParseContext context = store.top() instanceof ArgEvent ? ((ArgEvent) store.top()).context : null;
+			if (concrete.klass == model.root) {
+				// With no arguments the rule can't reach the stream's context, so the stream finishes the object
+				if (context == null)
+					return store.pushStack(new Unfinished(binder, out, counts));
+				if (context.layered != null)
+					bindLayered(binder, out, counts, context.layered);
+			}
+			binder.checkRequired(counts);
+			if (context != null && context.listener != null)
+				context.listener.rule(concrete.klass);
+			return store.pushStack(out);
+		}));
+	}
+
+	/**
+	 * A root class instance parsed from no arguments, before source values are bound and required arguments are
+	 * checked.  {@link CommandStream#finish()} completes it with the stream's context.
+	 */
+	static class Unfinished {
+		private final Binder binder;
+		private final Object out;
+		private final int[] counts;
+
+		private Unfinished(final Binder binder, final Object out, final int[] counts) {
+			this.binder = binder;
+			this.out = out;
+			this.counts = counts;
+		}
+
+		/**
+		 * @param context
+		 * @return the root class instance
+		 */
+		public Object finish(final ParseContext context) {
+			if (context.layered != null)
+				bindLayered(binder, out, counts, context.layered);
+			binder.checkRequired(counts);
+			if (context.listener != null)
+				context.listener.rule(out.getClass());
+			return out;
+		}
+	}
+
+	/**
+	 * Bind source values to the root class fields that weren't given by arguments.
+	 *
+	 * @param binder
+	 * @param out
+	 * @param counts  the number of values bound to each field, updated for the source values
+	 * @param layered
+	 */
+	private static void bindLayered(
+			final Binder binder,
+			final Object out,
+			final int[] counts,
+			final List<Pair<CommandModel.FieldModel, String>> layered
+	) {
+		for (final Pair<CommandModel.FieldModel, String> pair : layered) {
+			final Binder.FieldBinder field = binder.field(pair.first);
+			if (counts[field.index] > 0)
+				continue;
+			counts[field.index] = 1;
+			field.bind(out, sourceValue(pair.first, pair.second), 0);
+		}
+	}
+
+	/**
+	 * Convert a value from a source the same way the field's value node converts an argument.
+	 *
+	 * @param field a field accepted by {@link Sources}
+	 * @param value
+	 * @return
+	 */
+	private static Object sourceValue(final CommandModel.FieldModel field, final String value) {
+		if (field.isFlag())
+			return Boolean.valueOf(value);
+		switch (field.value.kind) {
+			case INTEGER: {
+				final ArgEvent event = new ArgEvent(value);
+				try {
+					event.intValue();
+				} catch (final NumberFormatException e) {
+					throw new AbortParse(String.format("%s is not an integer.", value));
+				}
+				return event;
+			}
+			case DOUBLE: {
+				final ArgEvent event = new ArgEvent(value);
+				try {
+					event.doubleValue();
+				} catch (final NumberFormatException e) {
+					throw new AbortParse(String.format("%s is not a double.", value));
+				}
+				return event;
+			}
+			case BOOLEAN:
+				return Boolean.parseBoolean(value);
+			case ENUM:
+				for (final Pair<String, Object> pair : field.value.enumValues)
+					if (pair.first.equals(value))
+						return pair.second;
+				throw new AbortParse(String.format("%s is not a valid value for %s.", value, field.name));
+			default:
+				return value;
+		}
+	}
+
+	/**
+	 * Match any of the names in lookup with a single terminal and push the corresponding binder.
+	 *
+	 * @param lookup
+	 * @param value  null for boolean flags, which take no value
+	 * @return
+	 */
+	private static Node keywordNode(final Map<String, Binder.FieldBinder> lookup, final Node value) {
+		if (value == null)
+			return new Operator(new MatchingEventTerminal(new DispatchEvent(lookup)), store -> {
+				store = (Store) store.pushStack(lookup.get(((ArgEvent) store.top()).value()));
+				store = (Store) store.pushStack(true);
+				return Helper.stackDoubleElement(store);
+			});
+		return new Sequence()
+				.add(new Operator(new MatchingEventTerminal(new DispatchEvent(lookup)), store -> {
+					return store.pushStack(lookup.get(((ArgEvent) store.top()).value()));
+				}))
+				.add(new Operator(value, GrammarBuilder::bindValue));
+	}
+
+	/**
+	 * Pair the value on top of the stack with the field binder below it.  If the stream has a listener for the
+	 * field the value is handed to it instead and only a placeholder is kept.
+	 *
+	 * @param store
+	 * @return
+	 */
+	private static Store bindValue(Store store) {
+		final ParseContext context = ((ArgEvent) store.top()).context;
+		if (context != null && context.hasElementListeners()) {
+			final Object value = store.stackTop();
+			final Store popped = (Store) store.popStack();
+			final Binder.FieldBinder binder = popped.stackTop();
+			if (binder.repeatable && context.element(binder.field, binder.box(value))) {
+				store = (Store) popped.pushStack(Binder.CONSUMED);
+			}
+		}
+		return (Store) Helper.stackDoubleElement(store);
+	}
+}
@@ -0,0 +1,196 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Help text for a root class, formatted once so it can be written out any number of times.  There is one section
+ * per concrete class, which can also be rendered individually.
+ */
+public class HelpModel {
+	private final Class<?> root;
+	private final Map<Class<?>, Section> sections = new LinkedHashMap<>();
+	private final Map<String, Class<?>> names = new HashMap<>();
+
+	private static class Section {
+		/**
+		 * The first line, without the usage prefix or newline.
+		 */
+		final String usage;
+		/**
+		 * The remaining lines.
+		 */
+		final String body;
+
+		private Section(final String usage, final String body) {
+			this.usage = usage;
+			this.body = body;
+		}
+	}
+
+	HelpModel(final CommandModel model) {
+		this.root = model.root;
+		for (final CommandModel.Concrete concrete : model.concrete.values()) {
+			names.putIfAbsent(concrete.name, concrete.klass);
+			sections.put(concrete.klass, section(model, concrete));
+		}
+	}
+
+	/**
+	 * Write help for every class in the command.
+	 *
+	 * @param out
+	 * @param usagePrefix written before the root class usage line
+	 */
+	public void render(final Appendable out, final String usagePrefix) {
+		try {
+			for (final Map.Entry<Class<?>, Section> entry : sections.entrySet())
+				write(out, entry.getKey() == root ? usagePrefix : "", entry.getValue());
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Write help for a single class.
+	 *
+	 * @param out
+	 * @param usagePrefix written before the usage line
+	 * @param klass
+	 * @return false if the class isn't part of the command
+	 */
+	public boolean render(final Appendable out, final String usagePrefix, final Class<?> klass) {
+		final Section section = sections.get(klass);
+		if (section == null)
+			return false;
+		try {
+			write(out, usagePrefix, section);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Write help for a single class, by the name used to select it on the command line.
+	 *
+	 * @param out
+	 * @param usagePrefix
+	 * @param name
+	 * @return false if no class in the command has that name
+	 */
+	public boolean render(final Appendable out, final String usagePrefix, final String name) {
+		final Class<?> klass = names.get(name);
+		if (klass == null)
+			return false;
+		return render(out, usagePrefix, klass);
+	}
+
+	private static void write(final Appendable out, final String usagePrefix, final Section section)
+			throws IOException {
+		out.append(usagePrefix).append(section.usage).append('\n').append(section.body);
+	}
+
+	private static void line(final StringBuilder out, final int indent, final String text) {
+		for (int i = 0; i < indent; ++i)
+			out.append("  ");
+		out.append(text).append('\n');
+	}
+
+	private static void value(
+			final StringBuilder out, final CommandModel model, final int indent, final CommandModel.Value value
+	) {
+		switch (value.kind) {
+			case STRING:
+				line(out, indent, "Any string");
+				break;
+			case INTEGER:
+				line(out, indent, "Any integer");
+				break;
+			case DOUBLE:
+				line(out, indent, "Any double");
+				break;
+			case BOOLEAN:
+				line(out, indent, "true");
+				line(out, indent, "false");
+				break;
+			case ENUM:
+				for (final Pair<String, Object> pair : value.enumValues)
+					line(out, indent, pair.first);
+				break;
+			case LIST:
+			case SET:
+			case INTEGER_LIST:
+			case DOUBLE_LIST:
+				line(out, indent, "(may be specified multiple times)");
+				value(out, model, indent, value.inner);
+				break;
+			case MAP:
+				line(out, indent, "KEY VALUE");
+				line(out, indent, "where KEY is any string.");
+				line(out, indent, "where VALUE is:");
+				value(out, model, indent + 1, value.inner);
+				break;
+			case ABSTRACT:
+				for (final Pair<String, CommandModel.Value> pair : value.derived)
+					line(out, indent, pair.first);
+				break;
+			case CONCRETE:
+				line(out, indent, model.concrete.get(value.klass).name);
+				break;
+			default:
+				throw new AssertionError();
+		}
+	}
+
+	private static Section section(final CommandModel model, final CommandModel.Concrete concrete) {
+		final StringBuilder usage = new StringBuilder();
+		for (final CommandModel.FieldModel field : concrete.positional) {
+			if (usage.length() > 0)
+				usage.append(' ');
+			usage.append(field.name);
+		}
+		if (!concrete.keyword.isEmpty())
+			usage.append(" [keyword arguments]");
+
+		final StringBuilder body = new StringBuilder();
+		for (final CommandModel.FieldModel field : concrete.positional) {
+			line(body, 2, "");
+			line(body, 2, field.name);
+			line(body, 2, "");
+			if (!field.description.isEmpty())
+				line(body, 3, field.description);
+			line(body, 3, "Value:");
+			value(body, model, 4, field.value);
+		}
+		if (!concrete.keyword.isEmpty()) {
+			line(body, 0, "");
+			line(body, 0, "KEYWORD ARGUMENTS");
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				line(body, 2, "");
+				line(body, 2, String.format("%s%s%s",
+						field.name,
+						field.shortName.isEmpty() ? "" : ", " + field.shortName,
+						field.optional ? " (optional)" : ""
+				));
+				line(body, 2, "");
+				if (!field.description.isEmpty())
+					line(body, 3, field.description);
+				if (!field.isFlag()) {
+					final StringBuilder values = new StringBuilder();
+					value(values, model, 4, field.value);
+					if (values.length() > 0) {
+						line(body, 3, "Value:");
+						body.append(values);
+					}
+				}
+			}
+		}
+		return new Section(usage.toString(), body.toString());
+	}
+}
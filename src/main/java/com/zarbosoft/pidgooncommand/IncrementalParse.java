@@ -0,0 +1,57 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+import com.zarbosoft.pidgoon.InvalidStream;
+
+/**
+ * Reparses a command line that changes a little at a time, such as one being edited interactively.  Arguments
+ * shared with the previous line are not parsed again.  Created by {@link CommandParser#incremental()}.  Not thread
+ * safe.
+ *
+ * @param <T> the root class
+ */
+public class IncrementalParse<T> {
+	private final CommandStream<T> stream;
+	private String[] args = new String[0];
+	/**
+	 * The number of arguments in args that were pushed without error.
+	 */
+	private int pushed = 0;
+	private int reused = 0;
+
+	IncrementalParse(final CommandStream<T> stream) {
+		this.stream = stream.keepHistory();
+	}
+
+	/**
+	 * Parse a new version of the command line.
+	 *
+	 * @param args
+	 * @return the result of parsing all of args
+	 */
+	public ParseResult<T> update(final String[] args) {
+		int common = 0;
+		while (common < pushed && common < args.length && args[common].equals(this.args[common]))
+			common += 1;
+		stream.rewind(common);
+		this.args = args.clone();
+		this.pushed = common;
+		this.reused = common;
+		try {
+			for (int i = common; i < args.length; ++i) {
+				stream.push(args[i]);
+				pushed += 1;
+			}
+		} catch (final InvalidStream | AbortParse e) {
+			return ParseResult.failure(e);
+		}
+		return stream.tryFinish();
+	}
+
+	/**
+	 * @return the number of arguments the last update didn't need to parse again
+	 */
+	public int reused() {
+		return reused;
+	}
+}
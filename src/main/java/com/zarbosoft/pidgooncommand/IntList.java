@@ -0,0 +1,83 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.interface1.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints for repeatable integer arguments.  Values are stored unboxed, so binding each argument
+ * doesn't allocate.
+ */
+@Configuration
+public class IntList {
+	private int[] values;
+	private int size = 0;
+
+	public IntList() {
+		this(10);
+	}
+
+	public IntList(final int capacity) {
+		values = new int[capacity];
+	}
+
+	public void add(final int value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, Math.max(10, size * 2));
+		values[size++] = value;
+	}
+
+	public int get(final int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException(String.format("Index %s, size %s", index, size));
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Make room for count more values.
+	 *
+	 * @param count
+	 */
+	public void reserve(final int count) {
+		if (size + count > values.length)
+			values = Arrays.copyOf(values, size + count);
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof IntList))
+			return false;
+		final IntList list = (IntList) other;
+		if (list.size != size)
+			return false;
+		for (int i = 0; i < size; ++i)
+			if (list.values[i] != values[i])
+				return false;
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int out = 1;
+		for (int i = 0; i < size; ++i)
+			out = 31 * out + values[i];
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
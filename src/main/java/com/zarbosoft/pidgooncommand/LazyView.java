@@ -0,0 +1,89 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Implements a user interface over a parsed root class.  Each interface method returns the field with the same
+ * name.
+ */
+class LazyView implements InvocationHandler {
+	private final Map<Method, Field> fields;
+	/**
+	 * Null if the parse wasn't lazy.
+	 */
+	private final FastParser.Lazy lazy;
+	private final Object out;
+
+	LazyView(final Map<Method, Field> fields, final FastParser.Lazy lazy) {
+		this.fields = fields;
+		this.lazy = lazy;
+		this.out = null;
+	}
+
+	LazyView(final Map<Method, Field> fields, final Object out) {
+		this.fields = fields;
+		this.lazy = null;
+		this.out = out;
+	}
+
+	/**
+	 * Match the methods of view to fields of root.  Views can't have default methods.
+	 *
+	 * @param view
+	 * @param root
+	 * @return
+	 */
+	public static Map<Method, Field> fields(final Class<?> view, final Class<?> root) {
+		if (!view.isInterface())
+			throw new AssertionError(String.format("%s is not an interface.", view));
+		final Map<Method, Field> out = new HashMap<>();
+		for (final Method method : view.getMethods()) {
+			if (Modifier.isStatic(method.getModifiers()))
+				continue;
+			if (method.isDefault())
+				throw new AssertionError(String.format("%s is a default method, but view methods can only return fields.",
+						method
+				));
+			final Field field;
+			try {
+				field = root.getField(method.getName());
+			} catch (final NoSuchFieldException e) {
+				throw new AssertionError(String.format("%s has no field for %s.", root, method));
+			}
+			if (method.getParameterCount() != 0 || method.getReturnType() != field.getType())
+				throw new AssertionError(String.format("%s must take no arguments and return %s.",
+						method,
+						field.getType()
+				));
+			out.put(method, field);
+		}
+		return out;
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method, final Object[] args) {
+		final Field field = fields.get(method);
+		if (field == null) {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return String.format("LazyView@%x", System.identityHashCode(proxy));
+				default:
+					throw new UnsupportedOperationException(method.toString());
+			}
+		}
+		if (lazy != null)
+			return lazy.get(field);
+		return uncheck(() -> field.get(out));
+	}
+}
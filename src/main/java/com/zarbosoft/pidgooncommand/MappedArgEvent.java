@@ -0,0 +1,185 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * An argument that is a span of a memory mapped argument file.  The text is only decoded if something asks for it
+ * as a string; numbers are parsed directly from the bytes.
+ */
+class MappedArgEvent extends ArgEvent {
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+			1e19, 1e20, 1e21, 1e22
+	};
+
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int end;
+	private final boolean quoted;
+	private String value;
+
+	/**
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @param quoted  true if the span contains quotes or escapes that need to be removed
+	 * @param context
+	 */
+	MappedArgEvent(
+			final ByteBuffer buffer, final int start, final int end, final boolean quoted, final ParseContext context
+	) {
+		super(null, context);
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		this.quoted = quoted;
+	}
+
+	@Override
+	public String value() {
+		if (value == null) {
+			final byte[] bytes = new byte[end - start];
+			int length = 0;
+			byte quote = 0;
+			for (int i = start; i < end; ++i) {
+				final byte b = buffer.get(i);
+				if (quoted) {
+					if (b == '\\') {
+						// A backslash at the end of the file escapes nothing and is dropped, as in ArgReader
+						if (i + 1 < end)
+							bytes[length++] = buffer.get(++i);
+						continue;
+					} else if (quote != 0 && b == quote) {
+						quote = 0;
+						continue;
+					} else if (quote == 0 && (b == '"' || b == '\'')) {
+						quote = b;
+						continue;
+					}
+				}
+				bytes[length++] = b;
+			}
+			value = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean valueEquals(final String other) {
+		if (quoted || value != null)
+			return other.equals(value());
+		// Compared byte for byte while other is ASCII, since then each char is one byte in the file
+		final int length = end - start;
+		for (int i = 0; i < other.length(); ++i) {
+			final char c = other.charAt(i);
+			if (c >= 0x80)
+				return other.equals(value());
+			if (i >= length || buffer.get(start + i) != c)
+				return false;
+		}
+		return other.length() == length;
+	}
+
+	@Override
+	public boolean matchesKey(final Map<String, ?> lookup, final int maxBytes) {
+		if (!quoted && end - start > maxBytes)
+			return false;
+		return lookup.containsKey(value());
+	}
+
+	@Override
+	public int parseInt() {
+		if (quoted)
+			return super.parseInt();
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i += 1;
+		}
+		if (i == end)
+			throw new NumberFormatException(value());
+		// Accumulate negatively so Integer.MIN_VALUE fits, as in Integer.parseInt
+		final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		final int multiplyLimit = limit / 10;
+		int out = 0;
+		for (; i < end; ++i) {
+			final int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9 || out < multiplyLimit)
+				throw new NumberFormatException(value());
+			out *= 10;
+			if (out < limit + digit)
+				throw new NumberFormatException(value());
+			out -= digit;
+		}
+		return negative ? out : -out;
+	}
+
+	/**
+	 * Parses simple decimals with up to 15 significant digits and small exponents exactly; anything else goes
+	 * through {@link Double#parseDouble(String)}.
+	 *
+	 * @return
+	 */
+	@Override
+	public double parseDouble() {
+		if (quoted)
+			return super.parseDouble();
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i += 1;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for (; i < end; ++i) {
+			final byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				seenDigit = true;
+				if (mantissa != 0 || b != '0')
+					digits += 1;
+				if (digits > 15)
+					return super.parseDouble();
+				mantissa = mantissa * 10 + (b - '0');
+				if (seenPoint)
+					exponent -= 1;
+			} else if (b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else
+				break;
+		}
+		if (!seenDigit)
+			return super.parseDouble();
+		if (i < end) {
+			final byte b = buffer.get(i);
+			if (b != 'e' && b != 'E')
+				return super.parseDouble();
+			i += 1;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i += 1;
+			}
+			if (i == end)
+				return super.parseDouble();
+			int explicit = 0;
+			for (; i < end; ++i) {
+				final int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9 || explicit > 1000)
+					return super.parseDouble();
+				explicit = explicit * 10 + digit;
+			}
+			exponent += negativeExponent ? -explicit : explicit;
+		}
+		if (exponent < -22 || exponent > 22)
+			return super.parseDouble();
+		final double out = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		return negative ? -out : out;
+	}
+}
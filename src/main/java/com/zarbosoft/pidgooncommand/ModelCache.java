@@ -0,0 +1,378 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Stores {@link CommandModel}s in a compact binary file so later runs can skip walking and validating the command
+ * classes.  The file is keyed by a hash of the class files of every class in the model and of the subclass indexes
+ * written by {@link SubclassIndexProcessor}, so any change to them, including a new subclass of an abstract class in
+ * the model, invalidates it.  Subclasses that aren't in an index can only be found by scanning, so a cache built
+ * from a scan won't notice them.  Models generated at build time by {@link ModelGenerator} are stored the same way
+ * as classpath resources, but aren't checked against the class files since they're built with them.
+ */
+class ModelCache {
+	private static final int MAGIC = 0x50434d44;
+	private static final int VERSION = 3;
+	public static final String RESOURCE_PATH = "META-INF/pidgoon-command/models/";
+
+	/**
+	 * @param root
+	 * @return the path of the resource generated for root at build time
+	 */
+	public static String resource(final Class<?> root) {
+		return RESOURCE_PATH + root.getName();
+	}
+
+	/**
+	 * @param root
+	 * @return the model generated for root at build time, or null if there isn't one
+	 */
+	public static CommandModel loadResource(final Class<?> root) {
+		final ClassLoader loader = root.getClassLoader();
+		try (InputStream stream = loader == null ?
+				ClassLoader.getSystemResourceAsStream(resource(root)) :
+				loader.getResourceAsStream(resource(root))) {
+			if (stream == null)
+				return null;
+			return read(new DataInputStream(new BufferedInputStream(stream)), root, null);
+		} catch (final IOException | ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param path
+	 * @param root
+	 * @return the cached model, or null if the file is missing, unreadable or out of date
+	 */
+	public static CommandModel load(final Path path, final Class<?> root) {
+		return load(path, root, root.getClassLoader());
+	}
+
+	/**
+	 * Like {@link #load(Path, Class)} but checks the model against the class files and indexes visible to loader.
+	 *
+	 * @param path
+	 * @param root
+	 * @param loader
+	 * @return
+	 */
+	static CommandModel load(final Path path, final Class<?> root, final ClassLoader loader) {
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(path);
+		} catch (final IOException e) {
+			return null;
+		}
+		try {
+			return read(new DataInputStream(new ByteArrayInputStream(bytes)), root, loader);
+		} catch (final IOException | ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the model to a temporary file next to the path and move it into place atomically, so other processes
+	 * never read a partly written file.  The temporary file is removed if the write fails.
+	 *
+	 * @param path
+	 * @param model
+	 */
+	public static void save(final Path path, final CommandModel model) {
+		Path temp = null;
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(new DataOutputStream(bytes), model);
+			final Path parent = path.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+			Files.write(temp, bytes.toByteArray());
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			if (temp != null)
+				try {
+					Files.deleteIfExists(temp);
+				} catch (final IOException e2) {
+				}
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param in
+	 * @param root
+	 * @param verify the loader to check the key against, or null to skip the check
+	 * @return
+	 * @throws IOException
+	 * @throws ReflectiveOperationException
+	 */
+	private static CommandModel read(final DataInputStream in, final Class<?> root, final ClassLoader verify)
+			throws IOException, ReflectiveOperationException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			return null;
+		final int classCount = in.readInt();
+		final List<String> names = new ArrayList<>(classCount);
+		for (int i = 0; i < classCount; ++i)
+			names.add(in.readUTF());
+		if (!names.get(0).equals(root.getName()))
+			return null;
+		final byte[] key = new byte[in.readInt()];
+		in.readFully(key);
+		if (verify != null && !Arrays.equals(key, key(verify, names)))
+			return null;
+		final ClassLoader loader = root.getClassLoader();
+		final List<Class<?>> classes = new ArrayList<>(classCount);
+		classes.add(root);
+		for (int i = 1; i < classCount; ++i)
+			classes.add(Class.forName(names.get(i), false, loader));
+		final ModelReader reader = new ModelReader(in, classes);
+		final CommandModel.Value value = reader.value();
+		final int concreteCount = in.readInt();
+		final Map<Class<?>, CommandModel.Concrete> concrete = new LinkedHashMap<>();
+		for (int i = 0; i < concreteCount; ++i) {
+			final Class<?> klass = classes.get(in.readInt());
+			final String name = in.readUTF();
+			final List<CommandModel.FieldModel> positional = reader.fields();
+			final List<CommandModel.FieldModel> keyword = reader.fields();
+			concrete.put(klass, new CommandModel.Concrete(klass, name, positional, keyword));
+		}
+		return new CommandModel(root, value, concrete);
+	}
+
+	/**
+	 * @param model
+	 * @return every class the model refers to, indexed in order of discovery with the root first
+	 */
+	static Map<Class<?>, Integer> classes(final CommandModel model) {
+		final Map<Class<?>, Integer> classes = new LinkedHashMap<>();
+		classes.put(model.root, 0);
+		collectClasses(classes, model.value);
+		for (final CommandModel.Concrete concrete : model.concrete.values()) {
+			classes.putIfAbsent(concrete.klass, classes.size());
+			for (final CommandModel.FieldModel field : concrete.positional) {
+				classes.putIfAbsent(field.field.getDeclaringClass(), classes.size());
+				collectClasses(classes, field.value);
+			}
+			for (final CommandModel.FieldModel field : concrete.keyword) {
+				classes.putIfAbsent(field.field.getDeclaringClass(), classes.size());
+				collectClasses(classes, field.value);
+			}
+		}
+		return classes;
+	}
+
+	private static void write(final DataOutputStream out, final CommandModel model) throws IOException {
+		final Map<Class<?>, Integer> classes = classes(model);
+		final List<String> names = new ArrayList<>();
+		classes.keySet().forEach(klass -> names.add(klass.getName()));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(names.size());
+		for (final String name : names)
+			out.writeUTF(name);
+		final byte[] key = key(model.root.getClassLoader(), names);
+		out.writeInt(key.length);
+		out.write(key);
+		final ModelWriter writer = new ModelWriter(out, classes);
+		writer.value(model.value);
+		out.writeInt(model.concrete.size());
+		for (final CommandModel.Concrete concrete : model.concrete.values()) {
+			out.writeInt(classes.get(concrete.klass));
+			out.writeUTF(concrete.name);
+			writer.fields(concrete.positional);
+			writer.fields(concrete.keyword);
+		}
+		out.flush();
+	}
+
+	private static void collectClasses(final Map<Class<?>, Integer> classes, final CommandModel.Value value) {
+		if (value.klass != null)
+			classes.putIfAbsent(value.klass, classes.size());
+		if (value.inner != null)
+			collectClasses(classes, value.inner);
+		if (value.derived != null)
+			for (final Pair<String, CommandModel.Value> pair : value.derived)
+				collectClasses(classes, pair.second);
+	}
+
+	/**
+	 * Hash the names and class files of the classes, then every subclass index.
+	 *
+	 * @param loader
+	 * @param names
+	 * @return
+	 * @throws IOException if a class file can't be found
+	 */
+	private static byte[] key(final ClassLoader loader, final List<String> names) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		final byte[] buffer = new byte[8192];
+		for (final String name : names) {
+			digest.update(name.getBytes(StandardCharsets.UTF_8));
+			final String resource = String.format("%s.class", name.replace('.', '/'));
+			try (InputStream stream = loader == null ?
+					ClassLoader.getSystemResourceAsStream(resource) :
+					loader.getResourceAsStream(resource)) {
+				if (stream == null)
+					throw new FileNotFoundException(resource);
+				update(digest, buffer, stream);
+			}
+		}
+		final Enumeration<URL> indexes = loader == null ?
+				ClassLoader.getSystemResources(SubclassIndex.PATH) :
+				loader.getResources(SubclassIndex.PATH);
+		while (indexes.hasMoreElements()) {
+			try (InputStream stream = indexes.nextElement().openStream()) {
+				update(digest, buffer, stream);
+			}
+			digest.update((byte) '\n');
+		}
+		return digest.digest();
+	}
+
+	private static void update(final MessageDigest digest, final byte[] buffer, final InputStream stream)
+			throws IOException {
+		int read;
+		while ((read = stream.read(buffer)) > 0)
+			digest.update(buffer, 0, read);
+	}
+
+	private static class ModelWriter {
+		private final DataOutputStream out;
+		private final Map<Class<?>, Integer> classes;
+
+		private ModelWriter(final DataOutputStream out, final Map<Class<?>, Integer> classes) {
+			this.out = out;
+			this.classes = classes;
+		}
+
+		public void value(final CommandModel.Value value) throws IOException {
+			out.writeByte(value.kind.ordinal());
+			switch (value.kind) {
+				case ENUM:
+					out.writeInt(classes.get(value.klass));
+					out.writeInt(value.enumValues.size());
+					for (final Pair<String, Object> pair : value.enumValues) {
+						out.writeUTF(pair.first);
+						out.writeUTF(((Enum<?>) pair.second).name());
+					}
+					break;
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+				case MAP:
+					value(value.inner);
+					break;
+				case ABSTRACT:
+					out.writeInt(classes.get(value.klass));
+					out.writeInt(value.derived.size());
+					for (final Pair<String, CommandModel.Value> pair : value.derived) {
+						out.writeUTF(pair.first);
+						value(pair.second);
+					}
+					break;
+				case CONCRETE:
+					out.writeInt(classes.get(value.klass));
+					break;
+				default:
+			}
+		}
+
+		public void fields(final List<CommandModel.FieldModel> fields) throws IOException {
+			out.writeInt(fields.size());
+			for (final CommandModel.FieldModel field : fields) {
+				out.writeInt(classes.get(field.field.getDeclaringClass()));
+				out.writeUTF(field.field.getName());
+				out.writeUTF(field.name);
+				out.writeUTF(field.shortName);
+				out.writeInt(field.index);
+				out.writeBoolean(field.optional);
+				out.writeBoolean(field.earlyExit);
+				out.writeUTF(field.description);
+				value(field.value);
+			}
+		}
+	}
+
+	private static class ModelReader {
+		private static final CommandModel.Kind[] KINDS = CommandModel.Kind.values();
+		private final DataInputStream in;
+		private final List<Class<?>> classes;
+
+		private ModelReader(final DataInputStream in, final List<Class<?>> classes) {
+			this.in = in;
+			this.classes = classes;
+		}
+
+		@SuppressWarnings("unchecked")
+		public CommandModel.Value value() throws IOException {
+			final CommandModel.Kind kind = KINDS[in.readByte()];
+			switch (kind) {
+				case ENUM: {
+					final Class<?> klass = classes.get(in.readInt());
+					final int count = in.readInt();
+					final List<Pair<String, Object>> values = new ArrayList<>(count);
+					for (int i = 0; i < count; ++i) {
+						final String name = in.readUTF();
+						values.add(new Pair<>(name, Enum.valueOf((Class) klass, in.readUTF())));
+					}
+					return CommandModel.Value.enumeration(klass, values);
+				}
+				case LIST:
+				case SET:
+				case INTEGER_LIST:
+				case DOUBLE_LIST:
+				case MAP:
+					return CommandModel.Value.container(kind, value());
+				case ABSTRACT: {
+					final Class<?> klass = classes.get(in.readInt());
+					final int count = in.readInt();
+					final List<Pair<String, CommandModel.Value>> derived = new ArrayList<>(count);
+					for (int i = 0; i < count; ++i) {
+						final String name = in.readUTF();
+						derived.add(new Pair<>(name, value()));
+					}
+					return CommandModel.Value.abstractClass(klass, derived);
+				}
+				case CONCRETE:
+					return CommandModel.Value.concreteClass(classes.get(in.readInt()));
+				default:
+					return CommandModel.Value.scalar(kind);
+			}
+		}
+
+		public List<CommandModel.FieldModel> fields() throws IOException, NoSuchFieldException {
+			final int count = in.readInt();
+			final List<CommandModel.FieldModel> out = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i) {
+				final Field field = classes.get(in.readInt()).getDeclaredField(in.readUTF());
+				out.add(new CommandModel.FieldModel(field,
+						in.readUTF(),
+						in.readUTF(),
+						in.readInt(),
+						in.readBoolean(),
+						in.readBoolean(),
+						in.readUTF(),
+						value()
+				));
+			}
+			return out;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.zarbosoft.pidgooncommand;
+
+import org.reflections.Reflections;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Generates everything needed to parse without scanning or walking classes at startup: the model of each root class,
+ * stored as a resource that {@link Command#compile(Class)} reads instead of building the model, and native-image
+ * reflection and resource configuration covering the classes in the models.  Run it after compiling with the
+ * compiled classes and their subclass index on the class path, for example
+ * <pre>java com.zarbosoft.pidgooncommand.ModelGenerator target/classes com.example.CommandLine</pre>
+ */
+public class ModelGenerator {
+	public static final String NATIVE_IMAGE_PATH = "META-INF/native-image/pidgoon-command/";
+
+	public static void main(final String[] args) {
+		if (args.length < 2)
+			throw new IllegalArgumentException("Usage: ModelGenerator OUTPUT ROOT [ROOT...]");
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		final List<Class<?>> roots = new ArrayList<>();
+		for (int i = 1; i < args.length; ++i) {
+			try {
+				roots.add(Class.forName(args[i], false, loader));
+			} catch (final ClassNotFoundException e) {
+				throw new IllegalArgumentException(String.format("Root class [%s] not found.", args[i]), e);
+			}
+		}
+		generate(SubclassIndex.load(loader), Paths.get(args[0]), roots);
+	}
+
+	/**
+	 * Write the models and configuration for the roots into output, which should be a class path root.  The
+	 * native-image configuration goes in a directory named after the first root.
+	 *
+	 * @param reflections
+	 * @param output
+	 * @param roots
+	 */
+	public static void generate(final Reflections reflections, final Path output, final List<Class<?>> roots) {
+		final Map<Class<?>, Reflected> reflected = new LinkedHashMap<>();
+		final List<String> resources = new ArrayList<>();
+		resources.add(SubclassIndex.PATH);
+		for (final Class<?> root : roots) {
+			final CommandModel model = CommandModel.build(reflections, root);
+			ModelCache.save(output.resolve(ModelCache.resource(root)), model);
+			resources.add(ModelCache.resource(root));
+			ModelCache.classes(model).keySet().forEach(klass -> {
+				final Reflected entry = reflected.computeIfAbsent(klass, k -> new Reflected());
+				entry.enumeration = klass.isEnum();
+			});
+			for (final CommandModel.Concrete concrete : model.concrete.values()) {
+				reflected.get(concrete.klass).construct = true;
+				for (final CommandModel.FieldModel field : concrete.positional)
+					reflected.get(field.field.getDeclaringClass()).fields.add(field.field.getName());
+				for (final CommandModel.FieldModel field : concrete.keyword)
+					reflected.get(field.field.getDeclaringClass()).fields.add(field.field.getName());
+			}
+		}
+		final Path config = output.resolve(NATIVE_IMAGE_PATH + roots.get(0).getName());
+		write(config.resolve("reflect-config.json"), reflectConfig(reflected));
+		write(config.resolve("resource-config.json"), resourceConfig(resources));
+	}
+
+	private static class Reflected {
+		boolean construct = false;
+		boolean enumeration = false;
+		final Set<String> fields = new TreeSet<>();
+	}
+
+	private static String reflectConfig(final Map<Class<?>, Reflected> reflected) {
+		final StringBuilder out = new StringBuilder();
+		out.append("[");
+		boolean firstClass = true;
+		for (final Map.Entry<Class<?>, Reflected> entry : reflected.entrySet()) {
+			out.append(firstClass ? "\n" : ",\n");
+			firstClass = false;
+			out.append("  {\n    \"name\": ").append(quote(entry.getKey().getName()));
+			final Reflected value = entry.getValue();
+			if (value.construct)
+				out.append(",\n    \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]");
+			else if (value.enumeration)
+				out.append(",\n    \"methods\": [{\"name\": \"values\", \"parameterTypes\": []}]");
+			if (!value.fields.isEmpty()) {
+				out.append(",\n    \"fields\": [");
+				boolean firstField = true;
+				for (final String field : value.fields) {
+					out.append(firstField ? "\n" : ",\n");
+					firstField = false;
+					out.append("      {\"name\": ").append(quote(field)).append(", \"allowWrite\": true}");
+				}
+				out.append("\n    ]");
+			}
+			out.append("\n  }");
+		}
+		out.append("\n]\n");
+		return out.toString();
+	}
+
+	private static String resourceConfig(final List<String> resources) {
+		final StringBuilder out = new StringBuilder();
+		out.append("{\n  \"resources\": [");
+		boolean first = true;
+		for (final String resource : resources) {
+			out.append(first ? "\n" : ",\n");
+			first = false;
+			out.append("    {\"pattern\": ").append(quote(String.format("\\Q%s\\E", resource))).append("}");
+		}
+		out.append("\n  ]\n}\n");
+		return out.toString();
+	}
+
+	private static String quote(final String text) {
+		final StringBuilder out = new StringBuilder();
+		out.append('"');
+		for (final char c : text.toCharArray()) {
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}
+		out.append('"');
+		return out.toString();
+	}
+
+	private static void write(final Path path, final String text) {
+		try {
+			Files.createDirectories(path.getParent());
+			Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the arguments of each concrete class once, when its model is built, so parsing never repeats it.  Every
+ * problem in the model is reported together rather than stopping at the first.  {@link SubclassIndexProcessor} runs
+ * the same checks at build time.
+ */
+class ModelValidator {
+	static final String OPTIONAL_POSITIONAL = "Positional arguments must not be optional (%s in %s).";
+	static final String DUPLICATE_INDEX = "Multiple arguments with index %s in %s.";
+	static final String DUPLICATE_KEYWORD = "Duplicate keyword identifier [%s] in %s.";
+
+	/**
+	 * Models with fewer classes than this are checked on the calling thread, since starting parallel work costs more
+	 * than checking them.
+	 */
+	private static final int PARALLEL_THRESHOLD = 64;
+
+	/**
+	 * @param concrete
+	 * @throws AssertionError listing every problem if any class is invalid
+	 */
+	public static void validate(final Collection<CommandModel.Concrete> concrete) {
+		final Stream<CommandModel.Concrete> stream =
+				concrete.size() < PARALLEL_THRESHOLD ? concrete.stream() : concrete.parallelStream();
+		final List<String> errors = stream.flatMap(c -> errors(c).stream()).collect(Collectors.toList());
+		if (errors.isEmpty())
+			return;
+		throw new AssertionError(String.format("Invalid command model:\n%s", String.join("\n", errors)));
+	}
+
+	/**
+	 * @param concrete
+	 * @return a message for each problem in the class
+	 */
+	public static List<String> errors(final CommandModel.Concrete concrete) {
+		final List<String> errors = new ArrayList<>();
+		int lastIndex = -1;
+		for (final CommandModel.FieldModel field : concrete.positional) {
+			if (field.optional)
+				errors.add(String.format(OPTIONAL_POSITIONAL, field.field.getName(), concrete.klass.getName()));
+			if (field.index == lastIndex)
+				errors.add(String.format(DUPLICATE_INDEX, field.index, concrete.klass.getName()));
+			lastIndex = field.index;
+		}
+		final Set<String> seenKeywords = new HashSet<>();
+		for (final CommandModel.FieldModel field : concrete.keyword) {
+			if (!field.shortName.isEmpty() && !seenKeywords.add(field.shortName))
+				errors.add(String.format(DUPLICATE_KEYWORD, field.shortName, concrete.klass.getName()));
+			if (!seenKeywords.add(field.name))
+				errors.add(String.format(DUPLICATE_KEYWORD, field.name, concrete.klass.getName()));
+		}
+		return errors;
+	}
+}
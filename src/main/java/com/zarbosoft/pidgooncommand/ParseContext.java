@@ -0,0 +1,50 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * State for a single parse, reachable from operators through the events pushed to the stream.
+ */
+class ParseContext {
+	private final Map<Field, Consumer<Object>> elementListeners = new HashMap<>();
+	/**
+	 * Null unless the stream is being measured.
+	 */
+	public ParseListener listener = null;
+	/**
+	 * Terminals tested against the current argument, only counted when there's a listener.
+	 */
+	public int tested = 0;
+	/**
+	 * Source values for keyword arguments of the root class, bound by the root class's rule to the fields that
+	 * weren't given, or by {@link CommandStream#finish()} if there were no arguments.  Null if there are none.
+	 */
+	public List<Pair<CommandModel.FieldModel, String>> layered = null;
+
+	public void addElementListener(final Field field, final Consumer<Object> listener) {
+		elementListeners.put(field, listener);
+	}
+
+	public boolean hasElementListeners() {
+		return !elementListeners.isEmpty();
+	}
+
+	/**
+	 * @param field
+	 * @param value
+	 * @return true if a listener took the value
+	 */
+	public boolean element(final Field field, final Object value) {
+		final Consumer<Object> listener = elementListeners.get(field);
+		if (listener == null)
+			return false;
+		listener.accept(value);
+		return true;
+	}
+}
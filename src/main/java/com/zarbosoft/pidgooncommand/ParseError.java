@@ -0,0 +1,123 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.pidgoon.AbortParse;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where and why a parse failed, returned by {@link CommandParser#parseOrError(String[])} instead of throwing.
+ * Nothing is formatted until the message is requested.
+ */
+public class ParseError {
+	/**
+	 * 0-based index of the argument that couldn't be parsed, or the number of arguments if they ended early.
+	 */
+	public final int index;
+	/**
+	 * The argument at index, or null if the arguments ended early.
+	 */
+	public final String argument;
+	/**
+	 * Names of the fields being parsed at the failure, outermost first.  Empty if not known.
+	 */
+	public final List<String> path;
+	/**
+	 * A more specific explanation, such as an invalid number or a missing required argument, or null.
+	 */
+	public final String reason;
+	private final CommandParser<?> parser;
+	/**
+	 * Null if the arguments are events.
+	 */
+	private final String[] args;
+	/**
+	 * Null if the arguments are strings.  Only decoded as needed.
+	 */
+	private final ArgEvent[] events;
+	private List<String> expected;
+
+	ParseError(
+			final CommandParser<?> parser,
+			final String[] args,
+			final int index,
+			final List<String> path,
+			final String reason
+	) {
+		this.parser = parser;
+		this.args = args;
+		this.events = null;
+		this.index = index;
+		this.argument = index < args.length ? args[index] : null;
+		this.path = path;
+		this.reason = reason;
+	}
+
+	ParseError(
+			final CommandParser<?> parser,
+			final ArgEvent[] events,
+			final int index,
+			final List<String> path,
+			final String reason
+	) {
+		this.parser = parser;
+		this.args = null;
+		this.events = events;
+		this.index = index;
+		this.argument = index < events.length ? events[index].value() : null;
+		this.path = path;
+		this.reason = reason;
+	}
+
+	/**
+	 * Found by completing the arguments before index, so like {@link CommandParser#complete(String[])} this only
+	 * includes names and not arbitrary strings or numbers.
+	 *
+	 * @return the names that would have been accepted at index
+	 */
+	public List<String> expected() {
+		if (expected == null) {
+			final String[] prefix;
+			if (args != null)
+				prefix = Arrays.copyOf(args, index);
+			else {
+				prefix = new String[index];
+				for (int i = 0; i < index; ++i)
+					prefix[i] = events[i].value();
+			}
+			expected = parser.complete(prefix);
+		}
+		return expected;
+	}
+
+	public String message() {
+		final StringBuilder out = new StringBuilder();
+		if (argument == null)
+			out.append(index == 0 ? "Missing arguments" : String.format("Missing argument after %s",
+					new ArgPosition(index)
+			));
+		else
+			out.append(String.format("Invalid argument [%s] at %s", argument, new ArgPosition(index + 1)));
+		if (!path.isEmpty())
+			out.append(String.format(" in %s", String.join(".", path)));
+		if (reason != null)
+			out.append(String.format(": %s", reason));
+		else if (!expected().isEmpty())
+			out.append(String.format(", expected one of %s", String.join(", ", expected())));
+		if (out.charAt(out.length() - 1) != '.')
+			out.append('.');
+		return out.toString();
+	}
+
+	/**
+	 * @return an exception with the message, for callers that want to throw
+	 */
+	public AbortParse exception() {
+		return new AbortParse(message());
+	}
+
+	@Override
+	public String toString() {
+		return message();
+	}
+}
@@ -0,0 +1,50 @@
+package com.zarbosoft.pidgooncommand;
+
+/**
+ * Receives timings and grammar activity from a parse.  Every method does nothing by default.  When no listener is
+ * set nothing is measured.
+ */
+public interface ParseListener {
+	enum Phase {
+		/**
+		 * Finding subclasses and walking the command classes.  Only reported when a parser is compiled for the
+		 * parse, not when a cached parser is used.
+		 */
+		MODEL,
+		/**
+		 * Building the grammar from the model, reported with {@link #MODEL}.  Rules for concrete classes are built
+		 * when a parse first reaches them, so that time is part of {@link #PARSE}.
+		 */
+		GRAMMAR,
+		/**
+		 * Pushing every argument and finishing the stream.
+		 */
+		PARSE
+	}
+
+	/**
+	 * @param phase
+	 * @param nanos
+	 */
+	default void phase(final Phase phase, final long nanos) {
+	}
+
+	/**
+	 * Called after each argument is pushed.
+	 *
+	 * @param index    starting at 1
+	 * @param branches the number of grammar terminals the argument was tested against, which is the number of
+	 *                 parse branches that were live when it arrived
+	 */
+	default void argument(final int index, final int branches) {
+	}
+
+	/**
+	 * Called when the arguments for an instance of a class have all been matched.  With an ambiguous grammar this
+	 * includes branches that are later discarded.
+	 *
+	 * @param klass
+	 */
+	default void rule(final Class<?> klass) {
+	}
+}
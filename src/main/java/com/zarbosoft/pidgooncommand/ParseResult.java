@@ -0,0 +1,51 @@
+package com.zarbosoft.pidgooncommand;
+
+/**
+ * The outcome of parsing one argument vector, either a value or the error that stopped the parse.
+ *
+ * @param <T> the root class
+ */
+public class ParseResult<T> {
+	public final T value;
+	/**
+	 * The exception that stopped the parse, if it was thrown.
+	 */
+	public final RuntimeException error;
+	/**
+	 * A description of why the parse failed, if the error was returned as a value.
+	 */
+	public final ParseError parseError;
+
+	private ParseResult(final T value, final RuntimeException error, final ParseError parseError) {
+		this.value = value;
+		this.error = error;
+		this.parseError = parseError;
+	}
+
+	public static <T> ParseResult<T> success(final T value) {
+		return new ParseResult<>(value, null, null);
+	}
+
+	public static <T> ParseResult<T> failure(final RuntimeException error) {
+		return new ParseResult<>(null, error, null);
+	}
+
+	public static <T> ParseResult<T> failure(final ParseError error) {
+		return new ParseResult<>(null, null, error);
+	}
+
+	public boolean succeeded() {
+		return error == null && parseError == null;
+	}
+
+	/**
+	 * @return the value, or throw the error if the parse failed
+	 */
+	public T get() {
+		if (error != null)
+			throw error;
+		if (parseError != null)
+			throw parseError.exception();
+		return value;
+	}
+}
@@ -0,0 +1,46 @@
+package com.zarbosoft.pidgooncommand;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link ParseListener} that totals what it's told.  Not thread safe, use one per parse.
+ */
+public class ParseStats implements ParseListener {
+	public final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+	public int arguments = 0;
+	public int branches = 0;
+	public int peakBranches = 0;
+	public final Map<Class<?>, Integer> rules = new HashMap<>();
+
+	@Override
+	public void phase(final Phase phase, final long nanos) {
+		this.nanos.merge(phase, nanos, Long::sum);
+	}
+
+	@Override
+	public void argument(final int index, final int branches) {
+		arguments += 1;
+		this.branches += branches;
+		peakBranches = Math.max(peakBranches, branches);
+	}
+
+	@Override
+	public void rule(final Class<?> klass) {
+		rules.merge(klass, 1, Integer::sum);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder out = new StringBuilder();
+		nanos.forEach((phase, nanos) -> out.append(String.format("%s %.3fms, ", phase, nanos / 1000000.0)));
+		out.append(String.format("%s arguments, %s branches (peak %s), %s rules",
+				arguments,
+				branches,
+				peakBranches,
+				rules.values().stream().mapToInt(i -> i).sum()
+		));
+		return out.toString();
+	}
+}
@@ -0,0 +1,259 @@
+package com.zarbosoft.pidgooncommand;
+
+import org.reflections.Reflections;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Compiled parsers shared by every caller in the process, used by the static parse, help and completion methods of
+ * {@link Command}.  Parsers are stored with their root class using a {@link ClassValue}, so the cache doesn't keep
+ * classes or their class loaders from being unloaded.
+ * <p>
+ * Parsers are read without locking once compiled.  Each parser is compiled once even if many threads ask for it at
+ * the same time; the others wait for it.  Parsers compiled with a Reflections instance are held weakly by that
+ * instance, for the last few instances used with each root class, so callers should reuse their Reflections
+ * instance.  When more root classes than the maximum size have parsers, the classes that were cached first are
+ * evicted.
+ */
+public class ParserCache {
+	public static final ParserCache GLOBAL = new ParserCache(1024);
+	/**
+	 * Reflections instances to keep parsers for, per root class.
+	 */
+	private static final int MAXIMUM_SCANNED = 8;
+	private static final Scanned[] NO_SCANNED = new Scanned[0];
+
+	private final int maximumSize;
+	private final ClassValue<Entry> entries = new ClassValue<Entry>() {
+		@Override
+		protected Entry computeValue(final Class<?> type) {
+			return new Entry();
+		}
+	};
+	/**
+	 * Root classes with parsers, oldest first.
+	 */
+	private final ConcurrentLinkedQueue<WeakReference<Class<?>>> order = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize the number of root classes to keep parsers for
+	 */
+	public ParserCache(final int maximumSize) {
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("The maximum size must be at least 1.");
+		this.maximumSize = maximumSize;
+	}
+
+	private static class Scanned {
+		final WeakReference<Reflections> reflections;
+		final CommandParser<?> parser;
+
+		private Scanned(final Reflections reflections, final CommandParser<?> parser) {
+			this.reflections = new WeakReference<>(reflections);
+			this.parser = parser;
+		}
+	}
+
+	private static class Entry {
+		volatile CommandParser<?> indexed;
+		/**
+		 * Oldest first.  Replaced rather than modified, while holding the entry's lock.
+		 */
+		volatile Scanned[] scanned = NO_SCANNED;
+		/**
+		 * Guarded by the entry.  True while the class is counted in the size.
+		 */
+		boolean counted = false;
+	}
+
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		/**
+		 * Root classes removed from the cache, including classes that were unloaded.
+		 */
+		public final long evictions;
+		/**
+		 * Root classes with parsers.  Unloaded classes are included until they would be evicted.
+		 */
+		public final int size;
+
+		private Stats(final long hits, final long misses, final long evictions, final int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @param klass
+	 * @param <T>
+	 * @return the parser from {@link Command#compile(Class)}, compiling it if it isn't cached
+	 */
+	public <T> CommandParser<T> get(final Class<T> klass) {
+		return get(klass, null);
+	}
+
+	/**
+	 * Like {@link #get(Class)} but if the parser is compiled the time taken to build the model and grammar is
+	 * reported to listener.
+	 *
+	 * @param klass
+	 * @param listener may be null
+	 * @param <T>
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	<T> CommandParser<T> get(final Class<T> klass, final ParseListener listener) {
+		final Entry entry = entries.get(klass);
+		CommandParser<?> parser = entry.indexed;
+		if (parser != null) {
+			hits.increment();
+			return (CommandParser<T>) parser;
+		}
+		synchronized (entry) {
+			parser = entry.indexed;
+			if (parser != null) {
+				hits.increment();
+				return (CommandParser<T>) parser;
+			}
+			misses.increment();
+			entry.indexed = parser = compile(() -> Command.model(klass), listener);
+			added(entry, klass);
+		}
+		evict();
+		return (CommandParser<T>) parser;
+	}
+
+	/**
+	 * @param reflections
+	 * @param klass
+	 * @param <T>
+	 * @return the parser from {@link Command#compile(Reflections, Class)}, compiling it if it isn't cached for this
+	 * reflections instance
+	 */
+	public <T> CommandParser<T> get(final Reflections reflections, final Class<T> klass) {
+		return get(reflections, klass, null);
+	}
+
+	/**
+	 * Like {@link #get(Reflections, Class)} but if the parser is compiled the time taken to build the model and
+	 * grammar is reported to listener.
+	 *
+	 * @param reflections
+	 * @param klass
+	 * @param listener may be null
+	 * @param <T>
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	<T> CommandParser<T> get(final Reflections reflections, final Class<T> klass, final ParseListener listener) {
+		final Entry entry = entries.get(klass);
+		CommandParser<?> parser = find(entry.scanned, reflections);
+		if (parser != null) {
+			hits.increment();
+			return (CommandParser<T>) parser;
+		}
+		synchronized (entry) {
+			parser = find(entry.scanned, reflections);
+			if (parser != null) {
+				hits.increment();
+				return (CommandParser<T>) parser;
+			}
+			misses.increment();
+			parser = compile(() -> CommandModel.build(reflections, klass), listener);
+			// Drop parsers for collected instances and the oldest past the limit
+			final List<Scanned> scanned = new ArrayList<>(MAXIMUM_SCANNED);
+			for (final Scanned existing : entry.scanned)
+				if (existing.reflections.get() != null)
+					scanned.add(existing);
+			while (scanned.size() >= MAXIMUM_SCANNED)
+				scanned.remove(0);
+			scanned.add(new Scanned(reflections, parser));
+			entry.scanned = scanned.toArray(NO_SCANNED);
+			added(entry, klass);
+		}
+		evict();
+		return (CommandParser<T>) parser;
+	}
+
+	/**
+	 * @param model
+	 * @param listener may be null
+	 * @return
+	 */
+	private static CommandParser<?> compile(final Supplier<CommandModel> model, final ParseListener listener) {
+		if (listener == null)
+			return Command.compile(model.get());
+		long start = System.nanoTime();
+		final CommandModel built = model.get();
+		long end = System.nanoTime();
+		listener.phase(ParseListener.Phase.MODEL, end - start);
+		start = end;
+		final CommandParser<?> parser = Command.compile(built);
+		listener.phase(ParseListener.Phase.GRAMMAR, System.nanoTime() - start);
+		return parser;
+	}
+
+	private static CommandParser<?> find(final Scanned[] scanned, final Reflections reflections) {
+		for (final Scanned candidate : scanned)
+			if (candidate.reflections.get() == reflections)
+				return candidate.parser;
+		return null;
+	}
+
+	public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size.get());
+	}
+
+	/**
+	 * Count a class the first time a parser is cached for it since it was last evicted.  Called holding the entry's
+	 * lock.
+	 *
+	 * @param entry
+	 * @param klass
+	 */
+	private void added(final Entry entry, final Class<?> klass) {
+		if (entry.counted)
+			return;
+		entry.counted = true;
+		order.add(new WeakReference<>(klass));
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Evict the oldest classes while there are too many.  Classes that were unloaded count as evicted when they're
+	 * reached.  Entries are cleared rather than removed, holding their lock, so a parser being compiled for an evicted
+	 * class is either cleared or counts the class again.  Called without holding any entry's lock, so two threads
+	 * never wait on each other's entries.
+	 */
+	private void evict() {
+		while (size.get() > maximumSize) {
+			final WeakReference<Class<?>> oldest = order.poll();
+			if (oldest == null)
+				return;
+			size.decrementAndGet();
+			evictions.increment();
+			final Class<?> evicted = oldest.get();
+			if (evicted == null)
+				continue;
+			final Entry entry = entries.get(evicted);
+			synchronized (entry) {
+				entry.indexed = null;
+				entry.scanned = NO_SCANNED;
+				entry.counted = false;
+			}
+		}
+	}
+}
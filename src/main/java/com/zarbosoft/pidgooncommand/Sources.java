@@ -0,0 +1,125 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.rendaw.common.Pair;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Values for keyword arguments of the root class from outside the command line, such as environment variables and
+ * configuration files.  Sources added later take precedence over those added earlier, and arguments on the command
+ * line take precedence over every source.  Only arguments with a single value (strings, numbers, booleans and
+ * enums) are read from sources, and the root class must be concrete.  See
+ * {@link CommandParser#parse(String[], Sources)}.
+ * <p>
+ * Keys are keyword names without leading dashes, so {@code --out-dir} is {@code out-dir} in a configuration file.
+ * Environment variable names are the key in upper case with other characters replaced by underscores, after a
+ * prefix, so {@code --out-dir} is {@code APP_OUT_DIR} with the prefix {@code APP_}.
+ */
+public class Sources {
+	private final List<Function<CommandModel.FieldModel, String>> layers = new ArrayList<>();
+
+	/**
+	 * Add the process environment.
+	 *
+	 * @param prefix
+	 * @return this
+	 */
+	public Sources environment(final String prefix) {
+		return environment(prefix, System.getenv());
+	}
+
+	/**
+	 * @param prefix
+	 * @param environment
+	 * @return this
+	 */
+	public Sources environment(final String prefix, final Map<String, String> environment) {
+		layers.add(field -> environment.get(environmentName(prefix, field)));
+		return this;
+	}
+
+	/**
+	 * Add a properties or flat YAML file.  The file is memory mapped and read immediately, but values are only
+	 * decoded for arguments that use them.
+	 *
+	 * @param path
+	 * @return this
+	 */
+	public Sources file(final Path path) {
+		final ConfigFile file = new ConfigFile(path);
+		layers.add(field -> file.get(key(field)));
+		return this;
+	}
+
+	/**
+	 * @param values by key
+	 * @return this
+	 */
+	public Sources values(final Map<String, String> values) {
+		layers.add(field -> values.get(key(field)));
+		return this;
+	}
+
+	static String key(final CommandModel.FieldModel field) {
+		int start = 0;
+		while (start < field.name.length() && field.name.charAt(start) == '-')
+			start += 1;
+		return field.name.substring(start);
+	}
+
+	static String environmentName(final String prefix, final CommandModel.FieldModel field) {
+		final StringBuilder out = new StringBuilder(prefix);
+		for (final char c : key(field).toUpperCase(Locale.ROOT).toCharArray())
+			out.append(Character.isLetterOrDigit(c) ? c : '_');
+		return out.toString();
+	}
+
+	/**
+	 * @param model
+	 * @return the value with the highest precedence for each keyword argument of the root class that any source
+	 * has a value for
+	 * @throws AssertionError if there are sources and the root class is abstract, since its subcommands' arguments
+	 * aren't read from sources
+	 */
+	List<Pair<CommandModel.FieldModel, String>> resolve(final CommandModel model) {
+		if (layers.isEmpty())
+			return Collections.emptyList();
+		if (model.value.kind != CommandModel.Kind.CONCRETE)
+			throw new AssertionError(String.format("Sources can't be used with %s, which is abstract; arguments are " +
+					"only read from sources for a concrete root class.", model.root));
+		final List<Pair<CommandModel.FieldModel, String>> out = new ArrayList<>();
+		for (final CommandModel.FieldModel field : model.concrete.get(model.root).keyword) {
+			if (!single(field))
+				continue;
+			for (int i = layers.size() - 1; i >= 0; --i) {
+				final String value = layers.get(i).apply(field);
+				if (value == null)
+					continue;
+				out.add(new Pair<>(field, value));
+				break;
+			}
+		}
+		return out;
+	}
+
+	private static boolean single(final CommandModel.FieldModel field) {
+		if (field.isFlag())
+			return true;
+		switch (field.value.kind) {
+			case STRING:
+			case INTEGER:
+			case DOUBLE:
+			case BOOLEAN:
+			case ENUM:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.zarbosoft.pidgooncommand;
+
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+
+/**
+ * Loads the subclass indexes written by {@link SubclassIndexProcessor}.
+ */
+public class SubclassIndex {
+	public static final String PATH = "META-INF/pidgoon-command/subclasses";
+
+	/**
+	 * Create a Reflections instance populated from every index visible to the class loader instead of by scanning.
+	 *
+	 * @param classLoader
+	 * @return
+	 */
+	public static Reflections load(final ClassLoader classLoader) {
+		final Reflections reflections =
+				new Reflections(new ConfigurationBuilder().addClassLoader(classLoader).setScanners(new SubTypesScanner()));
+		final String index = SubTypesScanner.class.getSimpleName();
+		uncheck(() -> {
+			final Enumeration<URL> resources = classLoader.getResources(PATH);
+			while (resources.hasMoreElements()) {
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(resources
+						.nextElement()
+						.openStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						final int split = line.indexOf(' ');
+						if (split < 0)
+							continue;
+						reflections.getStore().getOrCreate(index).put(line.substring(0, split), line.substring(split + 1));
+					}
+				}
+			}
+		});
+		return reflections;
+	}
+}
@@ -0,0 +1,204 @@
+package com.zarbosoft.pidgooncommand;
+
+import com.zarbosoft.interface1.Configuration;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Records the supertypes of every annotated class in {@link SubclassIndex#PATH} so subclasses can be found at
+ * runtime without scanning the classpath.  Also runs the {@link ModelValidator} checks on the arguments of every
+ * annotated concrete class so mistakes are reported when compiling.
+ */
+@SupportedAnnotationTypes({"com.zarbosoft.interface1.Configuration", "com.zarbosoft.pidgooncommand.Command.Argument"})
+public class SubclassIndexProcessor extends AbstractProcessor {
+	private final Set<String> lines = new TreeSet<>();
+	/**
+	 * Annotated classes in this compilation, whose lines in an existing index are replaced.
+	 */
+	private final Set<String> compiled = new HashSet<>();
+	private final Set<String> validated = new HashSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		for (final TypeElement annotation : annotations)
+			for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind().isField() && element.getEnclosingElement().getKind() == ElementKind.CLASS) {
+					validate((TypeElement) element.getEnclosingElement());
+					continue;
+				}
+				if (!element.getKind().isClass() && !element.getKind().isInterface())
+					continue;
+				record((TypeElement) element);
+				if (element.getKind() == ElementKind.CLASS)
+					validate((TypeElement) element);
+			}
+		if (roundEnv.processingOver())
+			write();
+		return false;
+	}
+
+	private void record(final TypeElement element) {
+		final String name = binaryName(element);
+		compiled.add(name);
+		for (final TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(element.asType())) {
+			if (supertype.getKind() != TypeKind.DECLARED)
+				continue;
+			final TypeElement superElement = (TypeElement) ((DeclaredType) supertype).asElement();
+			if (superElement.getQualifiedName().contentEquals("java.lang.Object"))
+				continue;
+			lines.add(String.format("%s %s", binaryName(superElement), name));
+			record(superElement);
+		}
+	}
+
+	private void validate(final TypeElement element) {
+		final String name = binaryName(element);
+		if (element.getModifiers().contains(Modifier.ABSTRACT) || !validated.add(name))
+			return;
+		final Messager messager = processingEnv.getMessager();
+		final Map<Integer, VariableElement> seenIndices = new HashMap<>();
+		final Set<String> seenKeywords = new HashSet<>();
+		for (final VariableElement field : fields(element)) {
+			final Configuration configuration = field.getAnnotation(Configuration.class);
+			final Command.Argument argument = field.getAnnotation(Command.Argument.class);
+			if (argument != null && argument.index() >= 0) {
+				if (configuration.optional())
+					messager.printMessage(Diagnostic.Kind.ERROR,
+							String.format(ModelValidator.OPTIONAL_POSITIONAL, field.getSimpleName(), name),
+							field
+					);
+				if (seenIndices.putIfAbsent(argument.index(), field) != null)
+					messager.printMessage(Diagnostic.Kind.ERROR,
+							String.format(ModelValidator.DUPLICATE_INDEX, argument.index(), name),
+							field
+					);
+				continue;
+			}
+			if (argument != null && !argument.shortName().isEmpty() && !seenKeywords.add(argument.shortName()))
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						String.format(ModelValidator.DUPLICATE_KEYWORD, argument.shortName(), name),
+						field
+				);
+			final String longName =
+					configuration.name().isEmpty() ? field.getSimpleName().toString() : configuration.name();
+			if (!seenKeywords.add(longName))
+				messager.printMessage(Diagnostic.Kind.ERROR,
+						String.format(ModelValidator.DUPLICATE_KEYWORD, longName, name),
+						field
+				);
+		}
+	}
+
+	/**
+	 * @param element
+	 * @return the configuration fields of the class and its superclasses, superclass fields first
+	 */
+	private List<VariableElement> fields(final TypeElement element) {
+		final List<VariableElement> out = new ArrayList<>();
+		final TypeMirror superclass = element.getSuperclass();
+		if (superclass.getKind() == TypeKind.DECLARED)
+			out.addAll(fields((TypeElement) ((DeclaredType) superclass).asElement()));
+		for (final Element enclosed : element.getEnclosedElements()) {
+			if (!enclosed.getKind().isField() || enclosed.getAnnotation(Configuration.class) == null)
+				continue;
+			out.add((VariableElement) enclosed);
+		}
+		return out;
+	}
+
+	private String binaryName(final TypeElement element) {
+		return processingEnv.getElementUtils().getBinaryName(element).toString();
+	}
+
+	/**
+	 * Write the lines recorded in this compilation along with the lines of any existing index in the output, so
+	 * incremental and partial compiles keep the subclasses of classes that weren't recompiled.  Existing lines for
+	 * classes recompiled here are replaced, and lines for classes that no longer exist are dropped.
+	 */
+	private void write() {
+		if (lines.isEmpty())
+			return;
+		final Set<String> out = new TreeSet<>(lines);
+		for (final String line : existing()) {
+			final int split = line.indexOf(' ');
+			if (split < 0)
+				continue;
+			final String subclass = line.substring(split + 1);
+			if (compiled.contains(subclass) || !exists(subclass))
+				continue;
+			out.add(line);
+		}
+		try {
+			final FileObject file =
+					processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SubclassIndex.PATH);
+			try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+				for (final String line : out) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			}
+		} catch (final IOException e) {
+			processingEnv
+					.getMessager()
+					.printMessage(Diagnostic.Kind.ERROR,
+							String.format("Failed to write subclass index: %s", e.getMessage())
+					);
+		}
+	}
+
+	/**
+	 * @return the lines of the index left in the output by a previous compile, empty if there isn't one
+	 */
+	private List<String> existing() {
+		final List<String> out = new ArrayList<>();
+		try {
+			final FileObject file =
+					processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SubclassIndex.PATH);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.openInputStream(),
+					StandardCharsets.UTF_8
+			))) {
+				String line;
+				while ((line = reader.readLine()) != null)
+					out.add(line);
+			}
+		} catch (final IOException | IllegalArgumentException e) {
+			// No previous index
+		}
+		return out;
+	}
+
+	/**
+	 * @param binaryName
+	 * @return true if the class is still part of the compilation or on its class path
+	 */
+	private boolean exists(final String binaryName) {
+		return processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.')) != null;
+	}
+}
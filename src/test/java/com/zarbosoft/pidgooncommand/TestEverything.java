@@ -1,15 +1,42 @@
 package com.zarbosoft.pidgooncommand;
 
 import com.zarbosoft.interface1.Configuration;
+import com.zarbosoft.rendaw.common.Pair;
 import org.junit.Test;
 import org.reflections.Reflections;
 
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static com.zarbosoft.rendaw.common.Common.uncheck;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class TestEverything {
 
@@ -116,6 +143,20 @@ public class TestEverything {
 		Command.showHelp(new Reflections("com.zarbosoft.pidgooncommand"), CommandLine.class, "test usage: ");
 	}
 
+	@Test
+	public void helpModel() {
+		final HelpModel help = Command.compile(CommandLine.class).help();
+		final StringBuilder all = new StringBuilder();
+		help.render(all, "test usage: ");
+		assertThat(all.toString(), containsString("test usage: ARG_A ARG_B"));
+		assertThat(all.toString(), containsString("KEYWORD ARGUMENTS"));
+		final StringBuilder one = new StringBuilder();
+		assertThat(help.render(one, "xa ", "xa"), equalTo(true));
+		assertThat(one.toString(), containsString("xa A"));
+		assertThat(all.toString(), containsString(one.toString().substring(3)));
+		assertThat(help.render(new StringBuilder(), "", "nothing"), equalTo(false));
+	}
+
 	@Configuration
 	public static class ListHolder {
 		@Configuration(name = "-x")
@@ -130,4 +171,973 @@ public class TestEverything {
 				});
 		assertThat(out.x, equalTo(Arrays.asList(true, true, false)));
 	}
+
+	@Test
+	public void compiledReuse() {
+		final CommandParser<ListHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), ListHolder.class);
+		assertThat(parser.parse(new String[] {"-x", "true"}).x, equalTo(Arrays.asList(true)));
+		assertThat(parser.parse(new String[] {"-x", "false", "-x", "true"}).x, equalTo(Arrays.asList(false, true)));
+	}
+
+	@Test
+	public void indexedSubclasses() {
+		final CommandLine out = Command.parse(CommandLine.class, new String[] {
+				"4", "true", "3.3", "waffel", "7", "xa", "12", "--out-of-names", "xb", "13", "-f"
+		});
+		assertThat(out.sub2, instanceOf(SubCommand2A.class));
+		assertThat(((SubCommand2A) out.sub2).a, equalTo(12));
+		assertThat(out.sub3, instanceOf(SubCommand2B.class));
+		assertThat(((SubCommand2B) out.sub3).a, equalTo(13));
+	}
+
+	@Configuration
+	public enum Color {
+		@Configuration(name = "red")
+		RED,
+		@Configuration(name = "green")
+		GREEN
+	}
+
+	@Configuration
+	public static class KeywordHolder {
+		@Command.Argument(shortName = "-c")
+		@Configuration(name = "--color")
+		public Color color;
+		@Configuration(name = "--count", optional = true)
+		public int count;
+		@Configuration(name = "--limit", optional = true)
+		public int limit;
+		@Configuration(name = "--verbose", optional = true)
+		public boolean verbose;
+	}
+
+	@Test
+	public void testKeywordDispatch() {
+		final KeywordHolder out = Command.parse(new Reflections("com.zarbosoft.pidgooncommand"),
+				KeywordHolder.class,
+				new String[] {"--limit", "9", "-c", "green", "--verbose", "--count", "3"}
+		);
+		assertThat(out.color, equalTo(Color.GREEN));
+		assertThat(out.count, equalTo(3));
+		assertThat(out.limit, equalTo(9));
+		assertThat(out.verbose, equalTo(true));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testKeywordRepeated() {
+		Command.parse(new Reflections("com.zarbosoft.pidgooncommand"),
+				KeywordHolder.class,
+				new String[] {"-c", "red", "--count", "3", "--count", "4"}
+		);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testKeywordMissing() {
+		Command.parse(new Reflections("com.zarbosoft.pidgooncommand"),
+				KeywordHolder.class,
+				new String[] {"--count", "3"}
+		);
+	}
+
+	@Test
+	public void testStream() {
+		final List<Boolean> seen = new ArrayList<>();
+		final ListHolder out = Command
+				.compile(new Reflections("com.zarbosoft.pidgooncommand"), ListHolder.class)
+				.stream()
+				.<Boolean>onElement(uncheck(() -> ListHolder.class.getField("x")), seen::add)
+				.push(new StringReader("-x true\n'-x' \"false\""))
+				.finish();
+		assertThat(seen, equalTo(Arrays.asList(true, false)));
+		assertThat(out.x, nullValue());
+	}
+
+	@Test
+	public void testArgFile() {
+		final Path path = uncheck(() -> Files.createTempFile("pidgoon-command", ".args"));
+		uncheck(() -> Files.write(path, "-c 'green'\n--count 31\n".getBytes(StandardCharsets.UTF_8)));
+		try {
+			final KeywordHolder out = Command
+					.compile(new Reflections("com.zarbosoft.pidgooncommand"), KeywordHolder.class)
+					.stream()
+					.expandArgFiles()
+					.push(Arrays.asList("--limit", "4", "@" + path).iterator())
+					.finish();
+			assertThat(out.color, equalTo(Color.GREEN));
+			assertThat(out.count, equalTo(31));
+			assertThat(out.limit, equalTo(4));
+			final KeywordHolder out2 =
+					Command.parseWithArgFiles(KeywordHolder.class, new String[] {"--limit", "5", "@" + path});
+			assertThat(out2.color, equalTo(Color.GREEN));
+			assertThat(out2.count, equalTo(31));
+			assertThat(out2.limit, equalTo(5));
+			final CommandParser<KeywordHolder> parser =
+					Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), KeywordHolder.class);
+			assertThat(parser.fast, not(nullValue()));
+			assertThat(parser.expandArgFiles().parse(new String[] {"@" + path, "--limit", "6"}).count, equalTo(31));
+			assertThat(parser.expandArgFiles().parseOrError(new String[] {"@" + path, "--count", "1"}).succeeded(),
+					equalTo(false)
+			);
+			assertThat(parser.tryParse(new String[] {"@" + path}).succeeded(), equalTo(false));
+		} finally {
+			uncheck(() -> Files.delete(path));
+		}
+	}
+
+	@Configuration
+	public enum Accent {
+		@Configuration(name = "cafe")
+		PLAIN,
+		@Configuration(name = "caf\u00e9")
+		ACUTE
+	}
+
+	@Configuration
+	public static abstract class AccentBase {
+	}
+
+	@Configuration(name = "th\u00e9")
+	public static class AccentSub extends AccentBase {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+	}
+
+	@Configuration
+	public static class AccentHolder {
+		@Command.Argument(index = 0)
+		@Configuration(name = "SUB")
+		public AccentBase sub;
+		@Configuration(name = "--accent")
+		public Accent accent;
+	}
+
+	@Test
+	public void testArgFileNonAscii() {
+		final Path path = uncheck(() -> Files.createTempFile("pidgoon-command", ".args"));
+		uncheck(() -> Files.write(path, "th\u00e9 4 --accent caf\u00e9\n".getBytes(StandardCharsets.UTF_8)));
+		try {
+			final CommandParser<AccentHolder> parser =
+					Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), AccentHolder.class);
+			assertThat(parser.fast, not(nullValue()));
+			final AccentHolder out = parser.expandArgFiles().parse(new String[] {"@" + path});
+			assertThat(out.accent, equalTo(Accent.ACUTE));
+			assertThat(((AccentSub) out.sub).a, equalTo(4));
+			final AccentHolder out2 = parser.stream().pushArgFile(path).finish();
+			assertThat(out2.accent, equalTo(Accent.ACUTE));
+			assertThat(((AccentSub) out2.sub).a, equalTo(4));
+		} finally {
+			uncheck(() -> Files.delete(path));
+		}
+	}
+
+	@Test
+	public void testArgFileSplitting() {
+		final String text = "plain\t'single quoted' \"double \\\" quoted\"\u000Bmixed'qu'o\"te\"s\u001Fesc\\ aped\n" +
+				"\u2003em\u3000ideographic nb\u00a0sp caf\u00e9 \u20ac \\\u3000 '' \"\" end\\";
+		final Path path = uncheck(() -> Files.createTempFile("pidgoon-command", ".args"));
+		uncheck(() -> Files.write(path, text.getBytes(StandardCharsets.UTF_8)));
+		try {
+			final List<String> mapped = new ArrayList<>();
+			final ArgFile file = new ArgFile(path);
+			ArgEvent event;
+			while ((event = file.next(null)) != null)
+				mapped.add(event.value());
+			final List<String> read = new ArrayList<>();
+			new ArgReader(new StringReader(text)).forEachRemaining(read::add);
+			assertThat(read.size(), equalTo(14));
+			assertThat(mapped, equalTo(read));
+		} finally {
+			uncheck(() -> Files.delete(path));
+		}
+	}
+
+	@Configuration
+	public static class NumberHolder {
+		@Configuration(name = "-i", optional = true)
+		public int i;
+		@Configuration(name = "-j", optional = true)
+		public Integer j;
+		@Configuration(name = "-d", optional = true)
+		public double d;
+		@Configuration(name = "-l", optional = true)
+		public List<Integer> l;
+	}
+
+	@Test
+	public void testNumbers() {
+		final NumberHolder out = Command.parse(new Reflections("com.zarbosoft.pidgooncommand"),
+				NumberHolder.class,
+				new String[] {"-l", "1000", "-i", "-7", "-l", "2", "-d", "0.5", "-j", "12"}
+		);
+		assertThat(out.i, equalTo(-7));
+		assertThat(out.j, equalTo(12));
+		assertThat(out.d, equalTo(0.5));
+		assertThat(out.l, equalTo(Arrays.asList(1000, 2)));
+	}
+
+	@Configuration
+	public static class PrimitiveListHolder {
+		@Configuration(name = "-i", optional = true)
+		public int[] i;
+		@Configuration(name = "-d", optional = true)
+		public double[] d = new double[] {9};
+		@Configuration(name = "-l", optional = true)
+		public IntList l;
+		@Configuration(name = "-m", optional = true)
+		public DoubleList m;
+	}
+
+	@Test
+	public void testPrimitiveArrayConsumed() {
+		final List<Integer> seen = new ArrayList<>();
+		final PrimitiveListHolder out = Command
+				.compile(new Reflections("com.zarbosoft.pidgooncommand"), PrimitiveListHolder.class)
+				.stream()
+				.<Integer>onElement(uncheck(() -> PrimitiveListHolder.class.getField("i")), seen::add)
+				.push(Arrays.asList("-i", "1", "-d", "2", "-i", "3").iterator())
+				.finish();
+		assertThat(seen, equalTo(Arrays.asList(1, 3)));
+		assertThat(out.i, nullValue());
+		assertThat(Arrays.toString(out.d), equalTo("[2.0]"));
+	}
+
+	@Test
+	public void testPrimitiveLists() {
+		final CommandParser<PrimitiveListHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), PrimitiveListHolder.class);
+		assertThat(parser.fast, not(nullValue()));
+		final List<String> args = new ArrayList<>();
+		for (int i = 0; i < 25; ++i) {
+			args.add("-i");
+			args.add(Integer.toString(i - 3));
+			args.add("-l");
+			args.add(Integer.toString(i * 2));
+		}
+		args.addAll(Arrays.asList("-m", "0.5", "-m", "1e3"));
+		final PrimitiveListHolder out = parser.parse(args.toArray(new String[0]));
+		assertThat(out.i.length, equalTo(25));
+		assertThat(out.i[0], equalTo(-3));
+		assertThat(out.i[24], equalTo(21));
+		assertThat(out.d, equalTo(new double[] {9}));
+		assertThat(out.l.size(), equalTo(25));
+		assertThat(out.l.get(24), equalTo(48));
+		assertThat(out.m.toArray(), equalTo(new double[] {0.5, 1000}));
+		assertSameParse(parser, args.toArray(new String[0]));
+		assertSameParse(parser, "-d", "1", "-i", "4", "-d", "2");
+		assertSameParse(parser, "-i", "x");
+	}
+
+	@Test
+	public void testParseAll() {
+		final CommandParser<NumberHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), NumberHolder.class);
+		final List<ParseResult<NumberHolder>> results =
+				parser.parseAll(Stream.of(new String[] {"-i", "1"}, new String[] {"-i", "x"}, new String[] {"-i", "3"}));
+		assertThat(results.get(0).get().i, equalTo(1));
+		assertThat(results.get(1).succeeded(), equalTo(false));
+		assertThat(results.get(2).get().i, equalTo(3));
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final List<ParseResult<NumberHolder>> results2 = parser.parseAll(Stream.of(new String[] {"-i", "4"},
+					new String[] {"-q"}
+			), executor);
+			assertThat(results2.get(0).get().i, equalTo(4));
+			assertThat(results2.get(1).succeeded(), equalTo(false));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseAllMissingArgFile() {
+		final CommandParser<NumberHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), NumberHolder.class).expandArgFiles();
+		final List<ParseResult<NumberHolder>> results = parser.parseAll(Stream.of(new String[] {"-i", "1"},
+				new String[] {"-i", "2", "@/nonexistent/pidgoon-command.args"},
+				new String[] {"-i", "3"}
+		));
+		assertThat(results.get(0).get().i, equalTo(1));
+		assertThat(results.get(1).parseError.index, equalTo(2));
+		assertThat(results.get(1).parseError.message(), containsString("argument file"));
+		assertThat(results.get(2).get().i, equalTo(3));
+	}
+
+	@Test
+	public void testModelCache() {
+		final Path directory = uncheck(() -> Files.createTempDirectory("pidgoon-command"));
+		final Path cache = directory.resolve("model");
+		try {
+			final String[] args = new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"};
+			assertThat(Command.compile(CommandLine.class, cache).parse(args).a, equalTo(4));
+			assertThat(ModelCache.load(cache, CommandLine.class), not(nullValue()));
+			final CommandLine out = Command.compile(() -> {
+				throw new AssertionError("Cache not used");
+			}, CommandLine.class, cache).parse(args);
+			assertThat(out.c, equalTo(3.3));
+			assertThat(((SubCommand2A) out.sub2).a, equalTo(12));
+			assertThat(ModelCache.load(cache, ListHolder.class), nullValue());
+
+			// A cache that can't be written is skipped
+			final Path file = directory.resolve("file");
+			uncheck(() -> Files.write(file, new byte[0]));
+			assertThat(Command.compile(CommandLine.class, file.resolve("model")).parse(args).a, equalTo(4));
+
+			// Another jar adds a subclass of an abstract class in the model
+			final ClassLoader loader = new URLClassLoader(new URL[] {uncheck(() -> directory.toUri().toURL())},
+					CommandLine.class.getClassLoader()
+			);
+			assertThat(ModelCache.load(cache, CommandLine.class, loader), not(nullValue()));
+			final Path index = directory.resolve(SubclassIndex.PATH);
+			uncheck(() -> Files.createDirectories(index.getParent()));
+			uncheck(() -> Files.write(index,
+					String
+							.format("%s %s\n", SubCommand2Base.class.getName(), "com.example.SubCommand2C")
+							.getBytes(StandardCharsets.UTF_8)
+			));
+			assertThat(ModelCache.load(cache, CommandLine.class, loader), nullValue());
+		} finally {
+			uncheck(() -> {
+				try (Stream<Path> paths = Files.walk(directory)) {
+					paths.sorted(Comparator.reverseOrder()).forEach(path -> uncheck(() -> Files.delete(path)));
+				}
+			});
+		}
+	}
+
+	@Test
+	public void testModelGenerator() {
+		final Path directory = uncheck(() -> Files.createTempDirectory("pidgoon-command"));
+		try {
+			ModelGenerator.generate(new Reflections("com.zarbosoft.pidgooncommand"),
+					directory,
+					Arrays.asList(CommandLine.class)
+			);
+			final CommandModel model =
+					ModelCache.load(directory.resolve(ModelCache.resource(CommandLine.class)), CommandLine.class);
+			assertThat(model, not(nullValue()));
+			final CommandLine out = Command.<CommandLine>compile(model)
+					.parse(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"});
+			assertThat(((SubCommand2A) out.sub2).a, equalTo(12));
+			final Path config = directory.resolve(ModelGenerator.NATIVE_IMAGE_PATH + CommandLine.class.getName());
+			final String reflect =
+					new String(uncheck(() -> Files.readAllBytes(config.resolve("reflect-config.json"))),
+							StandardCharsets.UTF_8
+					);
+			assertThat(reflect, containsString(String.format("\"%s\"", SubCommand2A.class.getName())));
+			assertThat(reflect, containsString("{\"name\": \"sub2\", \"allowWrite\": true}"));
+			final String resource =
+					new String(uncheck(() -> Files.readAllBytes(config.resolve("resource-config.json"))),
+							StandardCharsets.UTF_8
+					);
+			assertThat(resource, containsString(ModelCache.resource(CommandLine.class)));
+		} finally {
+			uncheck(() -> {
+				try (Stream<Path> paths = Files.walk(directory)) {
+					paths.sorted(Comparator.reverseOrder()).forEach(path -> uncheck(() -> Files.delete(path)));
+				}
+			});
+		}
+	}
+
+	@Test
+	public void testModelValidation() {
+		// Built by hand since the annotation processor rejects invalid classes when compiling the tests
+		final CommandModel.Value integer = CommandModel.Value.scalar(CommandModel.Kind.INTEGER);
+		final CommandModel.FieldModel first = new CommandModel.FieldModel(uncheck(() -> CommandLine.class.getField(
+				"a")), "ARG_A", "", 0, true, false, "", integer);
+		final CommandModel.FieldModel second = new CommandModel.FieldModel(uncheck(() -> CommandLine.class.getField(
+				"e")), "--ultima", "-u", 0, false, false, "", integer);
+		final CommandModel.FieldModel keyword = new CommandModel.FieldModel(uncheck(() -> CommandLine.class.getField(
+				"e")), "--ultima", "-u", -1, true, false, "", integer);
+		final CommandModel.Concrete concrete = new CommandModel.Concrete(CommandLine.class,
+				"command-line",
+				Arrays.asList(first, second),
+				Arrays.asList(keyword, keyword)
+		);
+		assertThat(ModelValidator.errors(concrete).size(), equalTo(4));
+		try {
+			ModelValidator.validate(Arrays.asList(concrete, concrete));
+			fail();
+		} catch (final AssertionError e) {
+			assertThat(e.getMessage(), containsString("Positional arguments must not be optional"));
+			assertThat(e.getMessage(), containsString("Multiple arguments with index 0"));
+			assertThat(e.getMessage(), containsString("Duplicate keyword identifier [-u]"));
+			assertThat(e.getMessage(), containsString("Duplicate keyword identifier [--ultima]"));
+		}
+	}
+
+	@Test
+	public void testParseListener() {
+		final String[] args = new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"};
+		final Reflections reflections = new Reflections("com.zarbosoft.pidgooncommand");
+		final ParseStats stats = new ParseStats();
+		final CommandLine out = Command.parse(reflections, CommandLine.class, args, stats);
+		assertThat(out.a, equalTo(4));
+		assertThat(stats.nanos.keySet(),
+				equalTo(EnumSet.of(ParseListener.Phase.MODEL, ParseListener.Phase.GRAMMAR, ParseListener.Phase.PARSE))
+		);
+		// The model is deterministic so the single pass parser reports what it read
+		assertThat(stats.arguments, equalTo(args.length));
+		assertThat(stats.peakBranches, equalTo(1));
+		assertThat(stats.rules.containsKey(CommandLine.class), equalTo(true));
+		assertThat(stats.rules.containsKey(SubCommand2A.class), equalTo(true));
+		assertThat(stats.rules.containsKey(SubCommand2B.class), equalTo(false));
+
+		// The cached parser is reused, so only the parse is measured
+		final ParseStats cached = new ParseStats();
+		assertThat(Command.parse(reflections, CommandLine.class, args, cached).a, equalTo(4));
+		assertThat(cached.nanos.keySet(), equalTo(EnumSet.of(ParseListener.Phase.PARSE)));
+		assertThat(cached.arguments, equalTo(args.length));
+
+		// Grammar activity is reported when the grammar parses
+		final CommandParser<CommandLine> compiled = Command.compile(reflections, CommandLine.class);
+		final CommandParser<CommandLine> parser = new CommandParser<>(compiled.model, compiled.grammar, null);
+		final ParseStats grammar = new ParseStats();
+		assertThat(parser.parse(args, grammar).a, equalTo(4));
+		assertThat(grammar.arguments, equalTo(args.length));
+		assertThat(grammar.peakBranches > 0, equalTo(true));
+		assertThat(grammar.rules.containsKey(CommandLine.class), equalTo(true));
+		assertThat(grammar.rules.containsKey(SubCommand2A.class), equalTo(true));
+		assertThat(grammar.rules.containsKey(SubCommand2B.class), equalTo(false));
+	}
+
+	@Configuration
+	public static class AmbiguousInner {
+		@Configuration(name = "--n", optional = true)
+		public int n;
+	}
+
+	@Configuration
+	public static class AmbiguousHolder {
+		@Command.Argument(index = 0)
+		@Configuration(name = "INNER")
+		public AmbiguousInner inner;
+		@Configuration(name = "--n", optional = true)
+		public int n;
+	}
+
+	private static String dump(final Object value) {
+		if (value == null)
+			return "null";
+		if (value instanceof Collection)
+			return ((Collection<?>) value).stream().map(TestEverything::dump).collect(Collectors.joining(", ", "[", "]"));
+		if (value instanceof int[])
+			return Arrays.toString((int[]) value);
+		if (value instanceof double[])
+			return Arrays.toString((double[]) value);
+		if (value instanceof IntList || value instanceof DoubleList)
+			return value.toString();
+		if (value.getClass().isEnum() || value.getClass().getAnnotation(Configuration.class) == null)
+			return value.toString();
+		return Arrays
+				.stream(value.getClass().getFields())
+				.map(field -> String.format("%s=%s", field.getName(), dump(uncheck(() -> field.get(value)))))
+				.collect(Collectors.joining(", ", value.getClass().getSimpleName() + "{", "}"));
+	}
+
+	private static <T> void assertSameParse(final CommandParser<T> parser, final String... args) {
+		final Object fast = parser.fast.parse(args);
+		Object slow;
+		try {
+			slow = parser.stream().push(Arrays.asList(args).iterator()).finish();
+		} catch (final RuntimeException e) {
+			slow = null;
+		}
+		assertThat(dump(fast), equalTo(dump(slow)));
+	}
+
+	@Test
+	public void testFastPath() {
+		final Reflections reflections = new Reflections("com.zarbosoft.pidgooncommand");
+		assertThat(Command.compile(reflections, AmbiguousHolder.class).fast, nullValue());
+
+		final CommandParser<CommandLine> commandLine = Command.compile(reflections, CommandLine.class);
+		assertThat(commandLine.fast, not(nullValue()));
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "xa", "12", "-f");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "B", "47", "xb", "12", "-f", "-u", "3");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "xa", "12", "--out-of-names", "xb", "1", "h", "x");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "xa", "12");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "xa", "12", "-f", "-f");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel", "7", "xc", "12", "-f");
+		assertSameParse(commandLine, "4", "true", "3.3", "waffel");
+
+		final CommandParser<KeywordHolder> keywords = Command.compile(reflections, KeywordHolder.class);
+		assertThat(keywords.fast, not(nullValue()));
+		assertSameParse(keywords, "--limit", "9", "-c", "green", "--verbose", "--count", "3");
+		assertSameParse(keywords, "--color", "red");
+		assertSameParse(keywords, "--color", "blue");
+		assertSameParse(keywords, "--count", "3");
+
+		final CommandParser<ListHolder> list = Command.compile(reflections, ListHolder.class);
+		assertThat(list.fast, not(nullValue()));
+		assertSameParse(list, "-x", "true", "-x", "false", "-x", "true");
+		assertSameParse(list);
+	}
+
+	@Configuration
+	public static abstract class LazyBase {
+	}
+
+	@Configuration(name = "good")
+	public static class LazyGood extends LazyBase {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+	}
+
+	/**
+	 * Can't be constructed, which is only an error if it's parsed.
+	 */
+	@Configuration(name = "broken")
+	public static class LazyBroken extends LazyBase {
+		@Command.Argument(index = 0)
+		@Configuration(name = "A")
+		public int a;
+
+		public LazyBroken(final int a) {
+			this.a = a;
+		}
+	}
+
+	@Configuration
+	public static class LazyHolder {
+		@Command.Argument(index = 0)
+		@Configuration(name = "SUB")
+		public LazyBase sub;
+	}
+
+	@Test
+	public void testLazySubcommands() {
+		final CommandParser<LazyHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), LazyHolder.class);
+		final GrammarBuilder.LazyGrammar grammar = (GrammarBuilder.LazyGrammar) parser.grammar;
+		assertThat(grammar.built(LazyHolder.class), equalTo(false));
+		assertThat(parser.parse(new String[] {"good", "4"}).sub, instanceOf(LazyGood.class));
+		assertThat(((LazyGood) parser.stream().push(Arrays.asList("good", "5").iterator()).finish().sub).a,
+				equalTo(5)
+		);
+		assertThat(grammar.built(LazyHolder.class), equalTo(true));
+		assertThat(grammar.built(LazyGood.class), equalTo(true));
+		assertThat(grammar.built(LazyBroken.class), equalTo(false));
+		try {
+			parser.parse(new String[] {"broken", "4"});
+			fail();
+		} catch (final RuntimeException e) {
+		}
+	}
+
+	public interface KeywordView {
+		Color color();
+
+		int count();
+
+		int limit();
+
+		boolean verbose();
+	}
+
+	@Test
+	public void testLazyView() {
+		final CommandParser<KeywordHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), KeywordHolder.class);
+		final KeywordView view =
+				parser.parseLazy(new String[] {"--count", "x", "-c", "green", "--limit", "9"}, KeywordView.class);
+		assertThat(view.color(), equalTo(Color.GREEN));
+		assertThat(view.limit(), equalTo(9));
+		assertThat(view.verbose(), equalTo(false));
+		try {
+			view.count();
+			fail();
+		} catch (final RuntimeException e) {
+		}
+
+		final CommandParser<SubCommand2Base> abstractParser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), SubCommand2Base.class);
+		assertThat(abstractParser.fast.parseLazy(new String[] {"xb", "12"}), nullValue());
+		assertThat(abstractParser.parseLazy(new String[] {"xb", "12"}, EmptyView.class), not(nullValue()));
+
+		try {
+			parser.parseLazy(new String[] {"-c", "green"}, DefaultView.class);
+			fail();
+		} catch (final AssertionError e) {
+			assertThat(e.getMessage(), containsString("default method"));
+		}
+	}
+
+	public interface EmptyView {
+	}
+
+	public interface DefaultView {
+		int count();
+
+		default int doubled() {
+			return count() * 2;
+		}
+	}
+
+	@Configuration
+	public static class MapHolder {
+		@Configuration(name = "-D", optional = true)
+		public Map<String, Integer> defines;
+		@Configuration(name = "--colors", optional = true)
+		public Map<String, Color> colors;
+	}
+
+	@Test
+	public void testMap() {
+		final String[] args = new String[] {"-D", "a", "1", "--colors", "x", "red", "-D", "b", "-2", "-D", "a", "3"};
+		final CommandParser<MapHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), MapHolder.class);
+		final MapHolder out = parser.parse(args);
+		assertThat(out.defines.get("a"), equalTo(3));
+		assertThat(out.defines.get("b"), equalTo(-2));
+		assertThat(out.colors.get("x"), equalTo(Color.RED));
+		assertThat(parser.fast, not(nullValue()));
+		assertSameParse(parser, args);
+		assertSameParse(parser, "-D", "a", "b");
+		assertSameParse(parser, "--colors", "x", "blue");
+	}
+
+	@Test
+	public void testIncremental() {
+		final CommandParser<KeywordHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), KeywordHolder.class);
+		final IncrementalParse<KeywordHolder> line = parser.incremental();
+		assertThat(line.update(new String[] {"-c", "red", "--count"}).succeeded(), equalTo(false));
+		assertThat(line.update(new String[] {"-c", "red", "--count", "3"}).get().count, equalTo(3));
+		assertThat(line.reused(), equalTo(3));
+		assertThat(line.update(new String[] {"-c", "red", "--count", "4"}).get().count, equalTo(4));
+		assertThat(line.reused(), equalTo(3));
+		assertThat(line.update(new String[] {"-c", "red", "--count", "x"}).succeeded(), equalTo(false));
+		final KeywordHolder out = line.update(new String[] {"-c", "green"}).get();
+		assertThat(line.reused(), equalTo(1));
+		assertThat(out.color, equalTo(Color.GREEN));
+		assertThat(out.count, equalTo(0));
+
+		final CommandStream<KeywordHolder> stream =
+				parser.stream().keepHistory().push(Arrays.asList("-c", "red", "--limit", "2").iterator());
+		final CommandStream<KeywordHolder> fork = stream.fork(2).push(Arrays.asList("--limit", "5").iterator());
+		assertThat(stream.finish().limit, equalTo(2));
+		assertThat(fork.finish().limit, equalTo(5));
+		assertThat(stream.rewind(2).finish().limit, equalTo(0));
+	}
+
+	@Test
+	public void testComplete() {
+		final Reflections reflections = new Reflections("com.zarbosoft.pidgooncommand");
+		final CommandParser<KeywordHolder> keywords = Command.compile(reflections, KeywordHolder.class);
+		assertThat(keywords.complete(new String[] {"-c"}), equalTo(Arrays.asList("green", "red")));
+		assertThat(keywords.complete(new String[] {"-c", "red"}),
+				equalTo(Arrays.asList("--count", "--limit", "--verbose"))
+		);
+		assertThat(keywords.complete(new String[] {"-c", "purple"}), equalTo(Arrays.asList()));
+
+		final CommandParser<CommandLine> commandLine = Command.compile(reflections, CommandLine.class);
+		assertThat(commandLine.complete(new String[] {"4", "true", "3.3", "waffel", "7"}),
+				equalTo(Arrays.asList("B", "xa", "xb"))
+		);
+		assertThat(commandLine.complete(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"}),
+				equalTo(Arrays.asList("--g", "--out-of-names", "--ultima", "-u", "h"))
+		);
+
+		final CommandParser<AmbiguousHolder> ambiguous = Command.compile(reflections, AmbiguousHolder.class);
+		assertThat(ambiguous.complete(new String[] {}), equalTo(Arrays.asList("--n")));
+	}
+
+	@Test
+	public void testParseError() {
+		final Reflections reflections = new Reflections("com.zarbosoft.pidgooncommand");
+		final CommandParser<CommandLine> commandLine = Command.compile(reflections, CommandLine.class);
+		assertThat(commandLine.fast, not(nullValue()));
+
+		final ParseError subcommand =
+				commandLine.parseOrError(new String[] {"4", "true", "3.3", "waffel", "7", "xq", "12"}).parseError;
+		assertThat(subcommand.index, equalTo(5));
+		assertThat(subcommand.argument, equalTo("xq"));
+		assertThat(subcommand.path, equalTo(Arrays.asList("SUBCOMMAND")));
+		assertThat(subcommand.expected(), equalTo(Arrays.asList("B", "xa", "xb")));
+		assertThat(subcommand.message(), containsString("arg 6"));
+
+		final ParseError number = commandLine.parseOrError(new String[] {"x"}).parseError;
+		assertThat(number.index, equalTo(0));
+		assertThat(number.path, equalTo(Arrays.asList("ARG_A")));
+		assertThat(number.reason, not(nullValue()));
+
+		final ParseError missing = commandLine.parseOrError(new String[] {"4", "true"}).parseError;
+		assertThat(missing.index, equalTo(2));
+		assertThat(missing.argument, nullValue());
+
+		final ParseResult<CommandLine> success =
+				commandLine.parseOrError(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"});
+		assertThat(success.succeeded(), equalTo(true));
+		assertThat(success.get().f, equalTo(true));
+
+		final ParseResult<AmbiguousHolder> ambiguous =
+				Command.compile(reflections, AmbiguousHolder.class).parseOrError(new String[] {"--n", "x"});
+		assertThat(ambiguous.succeeded(), equalTo(false));
+		assertThat(ambiguous.parseError.reason, not(nullValue()));
+	}
+
+	@Test
+	public void testSources() {
+		final Path file = uncheck(() -> Files.createTempFile("pidgoon-command", ".properties"));
+		try {
+			uncheck(() -> Files.write(file,
+					"# comment\nultima: 5\ng = 2\nh = 'file'\n".getBytes(StandardCharsets.UTF_8)
+			));
+			final Map<String, String> environment = new HashMap<>();
+			environment.put("T_ULTIMA", "3");
+			environment.put("T_G", "1.5");
+			environment.put("T_H", "env");
+			final Sources sources = new Sources().environment("T_", environment).file(file);
+			final CommandParser<CommandLine> parser =
+					Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), CommandLine.class);
+
+			final CommandLine out =
+					parser.parse(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f", "-u", "9"}, sources);
+			assertThat(out.e, equalTo(9));
+			assertThat(out.g, equalTo(2.0));
+			assertThat(out.h, equalTo("file"));
+
+			final CommandLine out2 =
+					parser.parse(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"}, sources);
+			assertThat(out2.e, equalTo(5));
+
+			final CommandLine out3 = parser.parse(new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"},
+					new Sources().environment("T_", environment)
+			);
+			assertThat(out3.e, equalTo(3));
+			assertThat(out3.h, equalTo("env"));
+		} finally {
+			uncheck(() -> Files.delete(file));
+		}
+	}
+
+	@Configuration
+	public static class SourcesSub {
+		@Configuration(name = "--level", optional = true)
+		public int level;
+	}
+
+	@Configuration
+	public static class SourcesHolder {
+		@Command.Argument(index = 0)
+		@Configuration(name = "NAME")
+		public String name;
+		@Command.Argument(index = 1)
+		@Configuration(name = "SUB")
+		public SourcesSub sub;
+		@Configuration(name = "--level", optional = true)
+		public int level;
+	}
+
+	@Test
+	public void testSourcesGrammar() {
+		final CommandParser<SourcesHolder> compiled =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), SourcesHolder.class);
+		final CommandParser<SourcesHolder> parser = new CommandParser<>(compiled.model, compiled.grammar, null);
+		final Map<String, String> environment = new HashMap<>();
+		environment.put("T_LEVEL", "3");
+		final Sources sources = new Sources().environment("T_", environment);
+
+		// A value that's also a keyword name doesn't hide the source value
+		final SourcesHolder out = parser.parse(new String[] {"--level"}, sources);
+		assertThat(out.name, equalTo("--level"));
+		assertThat(out.level, equalTo(3));
+		assertThat(out.sub.level, equalTo(0));
+
+		// The source value isn't taken by the nested keyword with the same name
+		final SourcesHolder out2 = parser.parse(new String[] {"x"}, sources);
+		assertThat(out2.sub.level, equalTo(0));
+		assertThat(out2.level, equalTo(3));
+	}
+
+	@Test
+	public void testSourcesGrammarNoArguments() {
+		final CommandParser<KeywordHolder> compiled =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), KeywordHolder.class);
+		final CommandParser<KeywordHolder> parser = new CommandParser<>(compiled.model, compiled.grammar, null);
+		final Map<String, String> environment = new HashMap<>();
+		environment.put("T_COLOR", "red");
+		environment.put("T_COUNT", "2");
+		environment.put("T_VERBOSE", "true");
+		final Sources sources = new Sources().environment("T_", environment);
+
+		// Source values alone give the required keyword, without being treated as arguments
+		final KeywordHolder out = parser.parse(new String[] {}, sources);
+		assertThat(out.color, equalTo(Color.RED));
+		assertThat(out.count, equalTo(2));
+		assertThat(out.verbose, equalTo(true));
+		final ParseStats stats = new ParseStats();
+		final KeywordHolder out2 = parser.stream().listen(stats).layer(sources.resolve(parser.model)).finish();
+		assertThat(out2.color, equalTo(Color.RED));
+		assertThat(stats.arguments, equalTo(0));
+		assertThat(stats.rules.containsKey(KeywordHolder.class), equalTo(true));
+		assertThat(parser.tryParse(new String[] {}).succeeded(), equalTo(false));
+	}
+
+	@Test
+	public void testSourcesAbstractRoot() {
+		final CommandParser<SubCommand2Base> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), SubCommand2Base.class);
+		assertThat(parser.fast, not(nullValue()));
+		final Map<String, String> environment = new HashMap<>();
+		environment.put("T_A", "3");
+		try {
+			parser.parse(new String[] {"xb", "12"}, new Sources().environment("T_", environment));
+			fail();
+		} catch (final AssertionError e) {
+			assertThat(e.getMessage(), containsString("abstract"));
+		}
+		assertThat(((SubCommand2B) parser.parse(new String[] {"xb", "12"}, new Sources())).a, equalTo(12));
+		final CommandModel.FieldModel field = parser.model.concrete.get(SubCommand2B.class).positional.get(0);
+		assertThat(parser.fast.parse(new String[] {"xb", "12"}, Arrays.asList(new Pair<>(field, "3"))),
+				nullValue()
+		);
+	}
+
+	@Test
+	public void testServer() {
+		final CommandServer server = new CommandServer(0)
+				.register(Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), CommandLine.class));
+		final Thread thread = new Thread(server::run);
+		thread.start();
+		final Path token = uncheck(() -> Files.createTempFile("pidgoon-command", ".token"));
+		server.writeToken(token);
+		try (CommandClient client = CommandClient.connect(token)) {
+			final CommandClient.Response parsed = client.parse(CommandLine.class.getName(),
+					new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12", "-f"}
+			);
+			assertThat(parsed.succeeded, equalTo(true));
+			assertThat(parsed.text, containsString(String.format("=%s\n", CommandLine.class.getName())));
+			assertThat(parsed.text, containsString("ARG_A=4\n"));
+			assertThat(parsed.text, containsString(String.format("SUBCOMMAND=%s\n", SubCommand2A.class.getName())));
+			assertThat(parsed.text, containsString("SUBCOMMAND.A=12\n"));
+
+			final CommandClient.Response invalid = client.parse(CommandLine.class.getName(), new String[] {"x"});
+			assertThat(invalid.succeeded, equalTo(false));
+
+			final CommandClient.Response completed = client.complete(CommandLine.class.getName(),
+					new String[] {"4", "true", "3.3", "waffel", "7"}
+			);
+			assertThat(completed.text, equalTo("B\nxa\nxb"));
+
+			assertThat(client.parse(ListHolder.class.getName(), new String[] {}).succeeded, equalTo(false));
+
+			try (CommandClient impostor = new CommandClient(server.port(), "guess")) {
+				impostor.parse(CommandLine.class.getName(), new String[] {"4", "true", "3.3", "waffel", "7", "xa", "12"});
+				fail();
+			} catch (final UncheckedIOException e) {
+			}
+		} finally {
+			uncheck(() -> Files.deleteIfExists(token));
+			server.close();
+			uncheck(() -> thread.join());
+		}
+	}
+
+	@Configuration
+	public static class IncludeHolder {
+		@Command.Argument(shortName = "-I")
+		@Configuration(name = "--include", optional = true)
+		public List<String> include;
+		@Configuration(name = "-D", optional = true)
+		public Set<String> define;
+		@Configuration(name = "-v", optional = true)
+		public boolean verbose;
+		@Configuration(name = "--jobs", optional = true)
+		public int jobs;
+	}
+
+	@Test
+	public void testInterleavedCollections() {
+		final CommandParser<IncludeHolder> parser =
+				Command.compile(new Reflections("com.zarbosoft.pidgooncommand"), IncludeHolder.class);
+		final String[] args = new String[] {
+				"-I", "a", "-D", "x", "-v", "--include", "b", "--jobs", "3", "-D", "y", "-I", "c"
+		};
+		final IncludeHolder out = parser.parse(args);
+		assertThat(out.include, equalTo(Arrays.asList("a", "b", "c")));
+		assertThat(out.define, equalTo(new HashSet<>(Arrays.asList("x", "y"))));
+		assertThat(out.verbose, equalTo(true));
+		assertThat(out.jobs, equalTo(3));
+		assertSameParse(parser, args);
+
+		final List<String> many = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i) {
+			many.add("-I");
+			many.add(Integer.toString(i));
+			if (i == 500)
+				many.add("-v");
+		}
+		final IncludeHolder out2 = parser.stream().push(many.iterator()).finish();
+		assertThat(out2.include.size(), equalTo(1000));
+		assertThat(out2.include.get(999), equalTo("999"));
+	}
+
+	@Test
+	public void testParserCache() {
+		final Reflections reflections = new Reflections("com.zarbosoft.pidgooncommand");
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final ParserCache cache = new ParserCache(16);
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<CommandParser<ListHolder>>> futures = new ArrayList<>();
+			for (int i = 0; i < 64; ++i)
+				futures.add(executor.submit(() -> {
+					start.await();
+					return cache.get(reflections, ListHolder.class);
+				}));
+			start.countDown();
+			final CommandParser<ListHolder> first = uncheck(() -> futures.get(0).get());
+			for (final Future<CommandParser<ListHolder>> future : futures)
+				assertThat(uncheck(() -> future.get()) == first, equalTo(true));
+			assertThat(cache.stats().misses, equalTo(1L));
+			assertThat(cache.stats().hits, equalTo(63L));
+			assertThat(cache.get(new Reflections("com.zarbosoft.pidgooncommand"), ListHolder.class) == first,
+					equalTo(false)
+			);
+			assertThat(cache.get(reflections, ListHolder.class) == first, equalTo(true));
+			final ParserCache.Stats cacheStats = cache.stats();
+			assertThat(cacheStats.misses, equalTo(2L));
+			assertThat(cacheStats.size, equalTo(1));
+			assertThat(cacheStats.evictions, equalTo(0L));
+
+			final ParserCache small = new ParserCache(2);
+			final List<Future<?>> parses = new ArrayList<>();
+			for (int i = 0; i < 200; ++i) {
+				final int index = i;
+				parses.add(executor.submit(() -> {
+					switch (index % 3) {
+						case 0:
+							assertThat(small.get(reflections, ListHolder.class).parse(new String[] {"-x", "false"}).x,
+									equalTo(Arrays.asList(false))
+							);
+							break;
+						case 1:
+							assertThat(small
+									.get(reflections, IncludeHolder.class)
+									.parse(new String[] {"-I", "a"}).include, equalTo(Arrays.asList("a")));
+							break;
+						case 2:
+							assertThat(small
+									.get(reflections, NumberHolder.class)
+									.parse(new String[] {"-i", "4"}).i, equalTo(4));
+							break;
+					}
+				}));
+			}
+			for (final Future<?> future : parses)
+				uncheck(() -> future.get());
+			final ParserCache.Stats stats = small.stats();
+			assertThat(stats.hits + stats.misses, equalTo(200L));
+			assertThat(stats.size <= 2, equalTo(true));
+			// Each miss here caches a new class, which is counted until it's evicted or unloaded
+			assertThat(stats.evictions, equalTo(stats.misses - stats.size));
+		} finally {
+			executor.shutdown();
+		}
+	}
 }